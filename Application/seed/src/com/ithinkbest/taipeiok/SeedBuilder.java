@@ -0,0 +1,219 @@
+package com.ithinkbest.taipeiok;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Writes the seed database, run by the buildSeedDatabase task on the JVM of the build:
+ * <pre>SeedBuilder taipei_seed.db strings.xml data00.json ...</pre>
+ * The tables come from OkSchema, the rows from ShopRow, DistrictClassifier and
+ * SearchTokens, the classes the app writes its own rows with. Coordinates are
+ * left null, the first refresh of a category fills them in.
+ */
+public class SeedBuilder {
+
+    // the page size of DatabaseProfile, it is fixed once the file has tables
+    private static final int PAGE_SIZE = 4096;
+
+    private static final String[] COLUMNS = {OkSchema.COLUMN_NAME, OkSchema.COLUMN_CATEGORY_ID,
+            OkSchema.COLUMN_TEL, OkSchema.COLUMN_DISPLAY_ADDR, OkSchema.COLUMN_POI_ADDR,
+            OkSchema.COLUMN_DISTRICT_ID, OkSchema.COLUMN_ROW_KEY, OkSchema.COLUMN_CONTENT_HASH};
+
+    private final Connection connection;
+    private final DistrictClassifier districts;
+    // OkSchema.CATXX and the categories only the fixtures have, a code is the index
+    private final List<String> categories = new ArrayList<String>(Arrays.asList(OkSchema.CATXX));
+    private final HashSet<String> seen = new HashSet<String>();
+    private final PreparedStatement addCategory;
+    private final PreparedStatement insert;
+    private final PreparedStatement index;
+
+    private SeedBuilder(Connection connection, String[] taipeiDistrict) throws SQLException {
+        this.connection = connection;
+        districts = new DistrictClassifier(taipeiDistrict);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA page_size = " + PAGE_SIZE);
+            for (String sql : OkSchema.CREATE_STATEMENTS) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+        addCategory = connection.prepareStatement("INSERT INTO " + OkSchema.TABLE_CATEGORY + " ("
+                + OkSchema.COLUMN_ID + "," + OkSchema.COLUMN_DICTIONARY_NAME + ") VALUES (?,?)");
+        for (int i = 0; i < categories.size(); i++) {
+            addCategory.setInt(1, i);
+            addCategory.setString(2, categories.get(i));
+            addCategory.executeUpdate();
+        }
+        PreparedStatement addDistrict = connection.prepareStatement("INSERT INTO " + OkSchema.TABLE_DISTRICT
+                + " (" + OkSchema.COLUMN_ID + "," + OkSchema.COLUMN_DICTIONARY_NAME + ") VALUES (?,?)");
+        try {
+            for (int i = 0; i < taipeiDistrict.length; i++) {
+                addDistrict.setInt(1, i);
+                addDistrict.setString(2, taipeiDistrict[i]);
+                addDistrict.executeUpdate();
+            }
+        } finally {
+            addDistrict.close();
+        }
+        StringBuilder columns = new StringBuilder();
+        StringBuilder args = new StringBuilder();
+        for (String column : COLUMNS) {
+            columns.append(columns.length() == 0 ? "" : ",").append(column);
+            args.append(args.length() == 0 ? "?" : ",?");
+        }
+        insert = connection.prepareStatement("INSERT INTO " + OkSchema.TABLE_NAME + " (" + columns
+                + ") VALUES (" + args + ")");
+        // docid is the row just inserted into ok, the summary triggers leave last_insert_rowid() alone
+        index = connection.prepareStatement("INSERT INTO " + OkSchema.TABLE_FTS + " (docid,"
+                + OkSchema.COLUMN_NAME + "," + OkSchema.COLUMN_DISPLAY_ADDR + ") VALUES (last_insert_rowid(),?,?)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        File seed = new File(args[0]);
+        String[] taipeiDistrict = stringArray(new File(args[1]), "taipei_district");
+        if (seed.exists() && !seed.delete()) {
+            throw new IOException("cannot delete " + seed);
+        }
+        Class.forName("org.sqlite.JDBC");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + seed.getAbsolutePath());
+        try {
+            SeedBuilder builder = new SeedBuilder(connection, taipeiDistrict);
+            connection.setAutoCommit(false);
+            int rows = 0;
+            for (int i = 2; i < args.length; i++) {
+                rows += builder.load(new File(args[i]));
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            Statement statement = connection.createStatement();
+            try {
+                // same version as DatabaseHelper, or it would migrate the seed in onUpgrade
+                statement.execute("PRAGMA user_version = " + OkSchema.DATABASE_VERSION);
+                statement.execute("VACUUM");
+            } finally {
+                statement.close();
+            }
+            System.out.println(seed.getName() + ": " + rows + " rows, version " + OkSchema.DATABASE_VERSION
+                    + ", " + seed.length() + " bytes");
+        } finally {
+            connection.close();
+        }
+    }
+
+    // the rows of one fixture, a shop once per category like the stage of OkProvider
+    private int load(File fixture) throws IOException, SQLException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(fixture), "UTF-8"));
+        int rows = 0;
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                ShopRow row = readShop(reader);
+                int category = category(row.certificationCategory);
+                if (!seen.add(category + "|" + row.rowKey)) {
+                    continue;
+                }
+                // the text is what content_hash is made of, the codes are what is stored
+                insert.setString(1, row.name);
+                insert.setInt(2, category);
+                insert.setString(3, row.tel);
+                insert.setString(4, row.displayAddr);
+                insert.setString(5, row.poiAddr);
+                insert.setInt(6, row.district);
+                insert.setString(7, row.rowKey);
+                insert.setLong(8, row.contentHash);
+                insert.executeUpdate();
+                index.setString(1, SearchTokens.tokens(row.name));
+                index.setString(2, SearchTokens.tokens(row.displayAddr));
+                index.executeUpdate();
+                rows++;
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    // the fields JsonIngest.readShop() reads, a missing or null one is ""
+    private ShopRow readShop(JsonReader reader) throws IOException {
+        String name = "";
+        String certificationCategory = "";
+        String tel = "";
+        String displayAddr = "";
+        String poiAddr = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (key.equals(OkSchema.COLUMN_NAME)) {
+                name = reader.nextString();
+            } else if (key.equals(OkSchema.COLUMN_CERTIFICATION_CATEGORY)) {
+                certificationCategory = reader.nextString();
+            } else if (key.equals(OkSchema.COLUMN_TEL)) {
+                tel = reader.nextString();
+            } else if (key.equals(OkSchema.COLUMN_DISPLAY_ADDR)) {
+                displayAddr = reader.nextString();
+            } else if (key.equals(OkSchema.COLUMN_POI_ADDR)) {
+                poiAddr = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new ShopRow(name, certificationCategory, tel, displayAddr, poiAddr, districts);
+    }
+
+    // a name not in OkSchema.CATXX gets the next code, as OkProvider gives it one
+    private int category(String name) throws SQLException {
+        int code = categories.indexOf(name);
+        if (code < 0) {
+            code = categories.size();
+            addCategory.setInt(1, code);
+            addCategory.setString(2, name);
+            addCategory.executeUpdate();
+            categories.add(name);
+        }
+        return code;
+    }
+
+    // a string-array of res/values, each item trimmed and its white space collapsed as aapt does
+    private static String[] stringArray(File strings, String name) throws Exception {
+        NodeList arrays = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(strings)
+                .getElementsByTagName("string-array");
+        for (int i = 0; i < arrays.getLength(); i++) {
+            Element array = (Element) arrays.item(i);
+            if (array.getAttribute("name").equals(name)) {
+                NodeList items = array.getElementsByTagName("item");
+                String[] values = new String[items.getLength()];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = items.item(j).getTextContent().trim().replaceAll("\\s+", " ");
+                }
+                return values;
+            }
+        }
+        throw new IllegalArgumentException("no string-array " + name + " in " + strings);
+    }
+}
@@ -0,0 +1,206 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Loads new shops into ok through one compiled INSERT, the fast path of OkProvider.bulkInsert.
+ * <p/>
+ * The caller fills row() and calls add() for every shop. The same Row and the same
+ * two statements are used for all of them, so nothing is allocated per row besides
+ * the ok_fts tokens: no ContentValues, no SQL string, no compile. Rows are committed
+ * every chunkSize adds; one transaction per row is slow, one for a whole category
+ * holds the database for too long.
+ * <p/>
+ * Category and district are given as their codes. The summary triggers run as for
+ * any insert.
+ * <p/>
+ * staging() loads into ok_stage instead, the tokens in the same row; a second shop
+ * with the row_key of one already staged is left out.
+ */
+public final class BulkLoader {
+
+    static final int DEFAULT_CHUNK = 500;
+
+    /**
+     * The buffer add() reads. Every field is written for every row.
+     */
+    public static final class Row {
+        public String name;
+        public int categoryId;
+        public String tel;
+        public String displayAddr;
+        public String poiAddr;
+        public int districtId;
+        public String rowKey;
+        public long contentHash;
+        public boolean located;
+        public double lat;
+        public double lng;
+        public String geohash;
+    }
+
+    private static final String SQL_INSERT = "INSERT INTO ok ("
+            + OkProvider.COLUMN_NAME + "," + OkProvider.COLUMN_CATEGORY_ID + "," + OkProvider.COLUMN_TEL + ","
+            + OkProvider.COLUMN_DISPLAY_ADDR + "," + OkProvider.COLUMN_POI_ADDR + ","
+            + OkProvider.COLUMN_DISTRICT_ID + "," + OkProvider.COLUMN_ROW_KEY + ","
+            + OkProvider.COLUMN_CONTENT_HASH + "," + OkProvider.COLUMN_LAT + "," + OkProvider.COLUMN_LNG + ","
+            + OkProvider.COLUMN_GEOHASH + ") VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String SQL_STAGE = "INSERT OR IGNORE INTO " + OkProvider.TABLE_STAGE + " ("
+            + OkProvider.COLUMN_NAME + "," + OkProvider.COLUMN_CATEGORY_ID + "," + OkProvider.COLUMN_TEL + ","
+            + OkProvider.COLUMN_DISPLAY_ADDR + "," + OkProvider.COLUMN_POI_ADDR + ","
+            + OkProvider.COLUMN_DISTRICT_ID + "," + OkProvider.COLUMN_ROW_KEY + ","
+            + OkProvider.COLUMN_CONTENT_HASH + "," + OkProvider.COLUMN_LAT + "," + OkProvider.COLUMN_LNG + ","
+            + OkProvider.COLUMN_GEOHASH + "," + OkProvider.COLUMN_NAME_TOKENS + "," + OkProvider.COLUMN_ADDR_TOKENS
+            + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String SQL_INDEX = "INSERT INTO " + SearchIndex.TABLE + " (docid,"
+            + OkProvider.COLUMN_NAME + "," + OkProvider.COLUMN_DISPLAY_ADDR + ") VALUES (?,?,?)";
+
+    private final SQLiteDatabase db;
+    private final OkProvider provider;
+    private final int chunkSize;
+    private final SQLiteStatement insert;
+    private final SQLiteStatement index; // null when staging
+    private final Row row = new Row();
+    private int inChunk; // rows added since the transaction began
+    private boolean inTransaction;
+    private int loaded;
+    private int committed; // loaded before the transaction began
+    private boolean closed;
+
+    // provider null when the caller invalidates and notifies, as OkProvider.applyBatch does
+    // after its commit, for the districts written only
+    BulkLoader(SQLiteDatabase db, OkProvider provider, int chunkSize) {
+        this.db = db;
+        this.provider = provider;
+        this.chunkSize = chunkSize;
+        insert = db.compileStatement(SQL_INSERT);
+        index = db.compileStatement(SQL_INDEX);
+    }
+
+    private BulkLoader(SQLiteDatabase db, int chunkSize) {
+        this.db = db;
+        this.provider = null;
+        this.chunkSize = chunkSize;
+        insert = db.compileStatement(SQL_STAGE);
+        index = null;
+    }
+
+    /**
+     * A loader into ok_stage, see OkProvider.publish. Nobody is notified.
+     */
+    static BulkLoader staging(SQLiteDatabase db, int chunkSize) {
+        return new BulkLoader(db, chunkSize);
+    }
+
+    public Row row() {
+        return row;
+    }
+
+    /**
+     * Inserts what is in row(), returns its _id; -1 for a staged row_key already staged.
+     */
+    public long add() {
+        if (!inTransaction) {
+            db.beginTransactionNonExclusive();
+            inTransaction = true;
+        }
+        try {
+            insert.bindString(1, row.name);
+            insert.bindLong(2, row.categoryId);
+            insert.bindString(3, row.tel);
+            insert.bindString(4, row.displayAddr);
+            insert.bindString(5, row.poiAddr);
+            insert.bindLong(6, row.districtId);
+            insert.bindString(7, row.rowKey);
+            insert.bindLong(8, row.contentHash);
+            if (row.located) {
+                insert.bindDouble(9, row.lat);
+                insert.bindDouble(10, row.lng);
+                insert.bindString(11, row.geohash);
+            } else {
+                insert.bindNull(9);
+                insert.bindNull(10);
+                insert.bindNull(11);
+            }
+            long id;
+            if (index == null) {
+                insert.bindString(12, SearchTokens.tokens(row.name));
+                insert.bindString(13, SearchTokens.tokens(row.displayAddr));
+                id = insert.executeInsert();
+            } else {
+                id = insert.executeInsert();
+                index.bindLong(1, id);
+                index.bindString(2, SearchTokens.tokens(row.name));
+                index.bindString(3, SearchTokens.tokens(row.displayAddr));
+                index.executeInsert();
+            }
+            if (id != -1) {
+                loaded++;
+            }
+            if (++inChunk == chunkSize) {
+                commit();
+            }
+            return id;
+        } catch (RuntimeException e) {
+            // the rows of this chunk go, the chunks before stay
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Commits the last chunk, releases the statements and tells observers of
+     * CONTENT_URI. Returns the number of rows loaded.
+     */
+    public int finish() {
+        if (inTransaction) {
+            commit();
+        }
+        close();
+        if (provider != null && loaded > 0) {
+            provider.notifyChange(OkProvider.CONTENT_URI);
+        }
+        return loaded;
+    }
+
+    /**
+     * Rolls back the open chunk and releases the statements.
+     */
+    void cancel() {
+        abort();
+    }
+
+    private void commit() {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        inTransaction = false;
+        inChunk = 0;
+        committed = loaded;
+        if (provider != null) {
+            // readers see the chunk from now on, notifyChange waits for finish()
+            provider.invalidateResults(OkProvider.CONTENT_URI);
+        }
+    }
+
+    // also when the first row of a chunk threw, the transaction is open by then
+    private void abort() {
+        if (inTransaction) {
+            db.endTransaction();
+            inTransaction = false;
+            loaded = committed;
+            inChunk = 0;
+        }
+        close();
+    }
+
+    private void close() {
+        if (!closed) {
+            closed = true;
+            insert.close();
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+}
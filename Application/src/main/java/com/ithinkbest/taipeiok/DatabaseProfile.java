@@ -0,0 +1,80 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Journal mode and pragmas of taipei.db, picked by R.string.db_profile.
+ * <p/>
+ * With write-ahead logging SQLiteDatabase keeps a pool of reader connections
+ * next to the writer, so the list and spinner queries go on while an ingest
+ * holds its transaction. synchronous NORMAL is safe in WAL mode, a power cut
+ * can lose the last commits but not corrupt the file; OFF can.
+ * <p/>
+ * page_size only applies when the file is created, an installed seed keeps
+ * the page size SeedBuilder gave it. The pragmas are set on the writer
+ * connection, the readers keep the defaults of the platform.
+ */
+final class DatabaseProfile {
+
+    static String LOG_TAG = "MARK987";
+
+    static final String DURABLE = "durable";
+    static final String BALANCED = "balanced";
+    static final String FAST = "fast";
+
+    final String name;
+    final boolean wal;
+    final int pageSize;
+    final int cacheKb;
+    final String synchronous;
+
+    private DatabaseProfile(String name, boolean wal, int pageSize, int cacheKb, String synchronous) {
+        this.name = name;
+        this.wal = wal;
+        this.pageSize = pageSize;
+        this.cacheKb = cacheKb;
+        this.synchronous = synchronous;
+    }
+
+    static DatabaseProfile load(Context context) {
+        return forName(context.getString(R.string.db_profile));
+    }
+
+    static DatabaseProfile forName(String name) {
+        if (DURABLE.equals(name)) {
+            // the old rollback journal, every commit synced
+            return new DatabaseProfile(DURABLE, false, 4096, 2000, "FULL");
+        }
+        if (FAST.equals(name)) {
+            // a lost commit is refetched by the next refresh anyway
+            return new DatabaseProfile(FAST, true, 4096, 8000, "OFF");
+        }
+        if (!BALANCED.equals(name)) {
+            Log.d(LOG_TAG, "unknown db_profile " + name + ", using " + BALANCED);
+        }
+        return new DatabaseProfile(BALANCED, true, 4096, 4000, "NORMAL");
+    }
+
+    /**
+     * From SQLiteOpenHelper.onConfigure, before onCreate or onUpgrade.
+     */
+    void configure(SQLiteDatabase db) {
+        if (wal) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
+        db.execSQL("PRAGMA page_size=" + pageSize);
+        // negative is KiB instead of pages
+        db.execSQL("PRAGMA cache_size=-" + cacheKb);
+        db.execSQL("PRAGMA synchronous=" + synchronous);
+    }
+
+    @Override
+    public String toString() {
+        return name + " wal=" + wal + " page_size=" + pageSize + " cache_size=-" + cacheKb
+                + " synchronous=" + synchronous;
+    }
+}
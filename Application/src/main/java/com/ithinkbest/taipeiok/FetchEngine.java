@@ -0,0 +1,477 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes several categories at once.
+ * <p/>
+ * Downloads and parsing run on a pool of `concurrency` threads, every database
+ * write goes through one writer thread in the order the batches were parsed.
+ * Download and parse are one stage, the parser reads straight off the socket.
+ * A full refresh then costs about the slowest download instead of the sum.
+ * Every attempt is recorded in FreshnessStore, success or failure.
+ * Bodies parsed to the end are kept in ResponseCache, a failed download
+ * parses the cached body again instead.
+ * <p/>
+ * One refresh or rebuild at a time per process, whoever started it: two of
+ * them would stage the same category into the same rows of ok_stage.
+ */
+public class FetchEngine {
+
+    static String LOG_TAG = "MARK987";
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int WRITE_QUEUE_CAPACITY = 8; // batches parsed ahead of the writer
+
+    // held by refresh() and rebuildFromCache(), UpdateService and SyncAdapter alike
+    private static final Object RUN_LOCK = new Object();
+
+    private final Context context;
+    private final int concurrency;
+    private final boolean streaming;
+    private final JsonIngest ingest;
+    private final ValidatorStore validators;
+    private final FreshnessStore freshness;
+    private final ResponseCache cache;
+
+    public FetchEngine(Context context, int concurrency) {
+        this(context, concurrency, true);
+    }
+
+    /**
+     * @param streaming false to read each body into memory before parsing it
+     */
+    public FetchEngine(Context context, int concurrency, boolean streaming) {
+        this.context = context.getApplicationContext();
+        this.concurrency = Math.max(1, concurrency);
+        this.streaming = streaming;
+        ingest = new JsonIngest(this.context);
+        validators = new ValidatorStore(this.context);
+        freshness = new FreshnessStore(this.context);
+        cache = ResponseCache.getInstance(this.context);
+    }
+
+    /**
+     * Time spent on one category, in ms.
+     */
+    public static class Timing {
+        final int cat;
+        int status;
+        boolean failed;  // no 304 and no complete 200
+        boolean rejected; // complete 200 not published, see JsonIngest.REJECTED
+        int rows;
+        int changed;     // rows inserted, updated or deleted
+        long waitMs;     // queued before a download thread was free
+        long fetchMs;    // request, download and parse
+        long writeMs;    // time on the writer thread
+
+        Timing(int cat) {
+            this.cat = cat;
+        }
+
+        @Override
+        public String toString() {
+            return "cat=" + cat + " status=" + status + " failed=" + failed + " rejected=" + rejected + " rows=" + rows + " changed=" + changed
+                    + " waitMs=" + waitMs + " fetchMs=" + fetchMs + " writeMs=" + writeMs;
+        }
+    }
+
+    /**
+     * Told on the writer thread once a category is completely written, or failed.
+     */
+    public interface Listener {
+        void onCategoryDone(Timing timing, int done, int total);
+    }
+
+    private static class Progress {
+        final Listener listener;
+        final int total;
+        final AtomicInteger done = new AtomicInteger();
+
+        Progress(Listener listener, int total) {
+            this.listener = listener;
+            this.total = total;
+        }
+
+        void categoryDone(Timing timing) {
+            int n = done.incrementAndGet();
+            if (listener != null) {
+                listener.onCategoryDone(timing, n, total);
+            }
+        }
+    }
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * The DB stage: one thread behind a bounded queue. When the queue is full
+     * the parser that wants to add a batch waits, so a slow disk slows the
+     * downloads down instead of piling parsed rows up on the heap.
+     */
+    private static ExecutorService newWriter() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WRITE_QUEUE_CAPACITY),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("writer is shut down");
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    }
+                });
+    }
+
+    public List<Timing> refresh(int[] cats) {
+        return refresh(cats, null);
+    }
+
+    public List<Timing> refresh(int[] cats, Listener listener) {
+        return refresh(cats, listener, false);
+    }
+
+    /**
+     * Blocks until every category is downloaded and written,
+     * call it from a background thread. With force, a body is published
+     * even when it fails the row count check of OkProvider.publish.
+     */
+    public List<Timing> refresh(int[] cats, Listener listener, boolean force) {
+        synchronized (RUN_LOCK) {
+            return refreshLocked(cats, listener, force);
+        }
+    }
+
+    private List<Timing> refreshLocked(int[] cats, Listener listener, final boolean force) {
+        final long start = SystemClock.elapsedRealtime();
+        ExecutorService downloaders = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, cats.length)));
+        final ExecutorService writer = newWriter();
+        final Progress progress = new Progress(listener, cats.length);
+        List<Timing> timings = new ArrayList<Timing>();
+        List<Future<?>> downloads = new ArrayList<Future<?>>();
+        try {
+            for (int cat : cats) {
+                final Timing timing = new Timing(cat);
+                timings.add(timing);
+                downloads.add(downloaders.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        timing.waitMs = SystemClock.elapsedRealtime() - start;
+                        fetch(timing, writer, progress, force);
+                    }
+                }));
+            }
+            for (Future<?> download : downloads) {
+                await(download);
+            }
+            // everything is queued on the writer by now, this runs after the last batch
+            drain(writer);
+        } finally {
+            downloaders.shutdown();
+            writer.shutdown();
+        }
+        for (Timing timing : timings) {
+            Log.d(LOG_TAG, "fetch " + timing);
+        }
+        HttpTransport transport = HttpTransport.getInstance();
+        Log.d(LOG_TAG, "fetch " + cats.length + " cats, concurrency=" + concurrency
+                + " totalMs=" + (SystemClock.elapsedRealtime() - start)
+                + " wireBytes=" + transport.getWireBytes() + " decodedBytes=" + transport.getDecodedBytes());
+        Log.d(LOG_TAG, "fetch " + cache.stats());
+        return timings;
+    }
+
+    /**
+     * Deletes every shop and forgets the validators and freshness of every
+     * category, so the next refresh downloads all of them. Waits for a refresh
+     * or rebuild that is running. Blocks, call it from a background thread.
+     */
+    public void clear() {
+        synchronized (RUN_LOCK) {
+            context.getContentResolver().delete(OkProvider.CONTENT_URI, null, null);
+            validators.clearAll();
+        }
+    }
+
+    /**
+     * Parses the cached bodies of cats again without touching the network,
+     * e.g. after DatabaseHelper.onUpgrade threw the rows away.
+     * Freshness and validators are left alone, the next online refresh still
+     * downloads the categories. Blocks, call it from a background thread.
+     */
+    public List<Timing> rebuildFromCache(int[] cats, Listener listener) {
+        synchronized (RUN_LOCK) {
+            return rebuildLocked(cats, listener);
+        }
+    }
+
+    private List<Timing> rebuildLocked(int[] cats, Listener listener) {
+        final long start = SystemClock.elapsedRealtime();
+        final ExecutorService writer = newWriter();
+        final Progress progress = new Progress(listener, cats.length);
+        List<Timing> timings = new ArrayList<Timing>();
+        try {
+            for (int cat : cats) {
+                final Timing timing = new Timing(cat);
+                timings.add(timing);
+                long t = SystemClock.elapsedRealtime();
+                timing.failed = !reparseCached(timing, writer, new Runnable() {
+                    @Override
+                    public void run() {
+                        progress.categoryDone(timing);
+                    }
+                });
+                timing.fetchMs = SystemClock.elapsedRealtime() - t;
+                if (timing.failed) {
+                    writer.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            progress.categoryDone(timing);
+                        }
+                    });
+                }
+            }
+            drain(writer);
+        } finally {
+            writer.shutdown();
+        }
+        for (Timing timing : timings) {
+            Log.d(LOG_TAG, "rebuild " + timing);
+        }
+        Log.d(LOG_TAG, "rebuild " + cats.length + " cats, totalMs=" + (SystemClock.elapsedRealtime() - start)
+                + " " + cache.stats());
+        return timings;
+    }
+
+    // everything is queued on the writer by now, this runs after the last batch
+    private static void drain(ExecutorService writer) {
+        await(writer.submit(NOTHING));
+    }
+
+    /**
+     * Hands the batches of one category to the writer thread. Once the
+     * stage is published there, done runs on the writer thread too.
+     * publishAnyway goes to JsonIngest.DirectWriter.finish.
+     */
+    private JsonIngest.BatchWriter queuedWriter(final Timing timing, final ExecutorService writer,
+                                                final boolean publishAnyway, final Runnable done) {
+        return new JsonIngest.BatchWriter() {
+            @Override
+            public void write(final int cat, final ContentValues[] batch, final boolean first) {
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long t = SystemClock.elapsedRealtime();
+                        ingest.directWriter.write(cat, batch, first);
+                        timing.writeMs += SystemClock.elapsedRealtime() - t;
+                    }
+                });
+            }
+
+            @Override
+            public int finish(final int cat) {
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long t = SystemClock.elapsedRealtime();
+                        int changed = ingest.directWriter.finish(cat, publishAnyway);
+                        timing.rejected = changed == JsonIngest.REJECTED;
+                        timing.changed = timing.rejected ? 0 : changed;
+                        timing.writeMs += SystemClock.elapsedRealtime() - t;
+                        done.run();
+                    }
+                });
+                return 0; // not known yet, see timing.changed
+            }
+
+            @Override
+            public void abort(final int cat) {
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ingest.directWriter.abort(cat);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Parses the cached body of timing.cat through the writer, if there is one.
+     * Returns true once it was parsed to the end, done then runs after the write.
+     */
+    private boolean reparseCached(Timing timing, ExecutorService writer, Runnable done) {
+        final boolean[] finished = {false};
+        try {
+            InputStream cached = cache.open(timing.cat);
+            if (cached == null) {
+                return false;
+            }
+            JsonIngest.BatchWriter queued = queuedWriter(timing, writer, false, done);
+            try {
+                timing.rows = ingest.ingestStream(timing.cat, cached, new FinishFlag(queued, finished));
+            } finally {
+                cached.close();
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "IOException " + e.toString());
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "Exception " + e.toString());
+        }
+        return finished[0];
+    }
+
+    // remembers that finish() was reached, i.e. the body was parsed to the end
+    private static class FinishFlag implements JsonIngest.BatchWriter {
+        private final JsonIngest.BatchWriter writer;
+        private final boolean[] finished;
+
+        FinishFlag(JsonIngest.BatchWriter writer, boolean[] finished) {
+            this.writer = writer;
+            this.finished = finished;
+        }
+
+        @Override
+        public void write(int cat, ContentValues[] batch, boolean first) {
+            writer.write(cat, batch, first);
+        }
+
+        @Override
+        public int finish(int cat) {
+            finished[0] = true;
+            return writer.finish(cat);
+        }
+
+        @Override
+        public void abort(int cat) {
+            writer.abort(cat);
+        }
+    }
+
+    private void fetch(final Timing timing, final ExecutorService writer, final Progress progress,
+                       boolean force) {
+        final int cat = timing.cat;
+        long start = SystemClock.elapsedRealtime();
+        final boolean[] finished = {false};
+        ResponseCache.Pending pending = null;
+        HttpTransport transport = HttpTransport.getInstance();
+        String str = OkProvider.JSNXX[cat];
+        HttpGet httpGet = new HttpGet(str);
+        validators.addConditionalHeaders(cat, httpGet);
+        // this would be the MAX_REJECTIONS-th failure in a row: a body that keeps
+        // coming back short is a real shrink, not a broken one
+        boolean publishAnyway = force || freshness.failures(cat) + 1 >= JsonIngest.MAX_REJECTIONS;
+        Log.d(LOG_TAG, "new HttpGet(str) => " + str);
+        try {
+            final HttpResponse response = transport.execute(httpGet);
+            timing.status = response.getStatusLine().getStatusCode();
+            if (timing.status == HttpStatus.SC_NOT_MODIFIED) {
+                Log.d(LOG_TAG, "not modified, cat=" + cat);
+                transport.discard(response);
+                finished[0] = true;
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        freshness.markFetched(cat, System.currentTimeMillis());
+                        progress.categoryDone(timing);
+                    }
+                });
+                return;
+            }
+            if (timing.status != HttpStatus.SC_OK) {
+                transport.discard(response);
+                Log.e(LOG_TAG, "Failed to download file");
+                return;
+            }
+            JsonIngest.BatchWriter queued = new FinishFlag(queuedWriter(timing, writer, publishAnyway, new Runnable() {
+                @Override
+                public void run() {
+                    if (timing.rejected) {
+                        // the validators of the rows stay, the next attempt downloads the body again
+                        freshness.markFailed(cat, System.currentTimeMillis());
+                    } else {
+                        validators.save(cat, response);
+                        freshness.markFetched(cat, System.currentTimeMillis());
+                    }
+                    progress.categoryDone(timing);
+                }
+            }), finished);
+            pending = cache.begin(cat, response, transport.openContent(response));
+            InputStream content = pending.getInputStream();
+            try {
+                if (streaming) {
+                    timing.rows = ingest.ingestStream(cat, content, queued);
+                } else {
+                    timing.rows = ingest.ingestString(cat, JsonIngest.readString(content), queued);
+                }
+            } finally {
+                content.close();
+            }
+            if (finished[0]) {
+                pending.commit();
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "IOException " + e.toString());
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "Exception " + e.toString());
+        } finally {
+            if (pending != null) {
+                pending.abort(); // no-op after commit()
+            }
+            timing.fetchMs = SystemClock.elapsedRealtime() - start;
+            timing.failed = !finished[0];
+            if (timing.failed) {
+                // keep showing the last complete body rather than nothing
+                if (!reparseCached(timing, writer, NOTHING)) {
+                    Log.d(LOG_TAG, "nothing cached, cat=" + cat);
+                }
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        freshness.markFailed(cat, System.currentTimeMillis());
+                        progress.categoryDone(timing);
+                    }
+                });
+            }
+        }
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.d(LOG_TAG, "ExecutionException " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * When each category was last fetched, kept in the meta table of taipei.db
+ * so it survives process death.
+ * <p/>
+ * A category is stale once TTL_MS has passed since its last 200 or 304.
+ * Failed attempts back off exponentially from BACKOFF_BASE_MS up to BACKOFF_MAX_MS.
+ */
+public class FreshnessStore {
+
+    static String LOG_TAG = "MARK987";
+    static final long TTL_MS = 24L * 60 * 60 * 1000;
+    static final long BACKOFF_BASE_MS = 60L * 1000;
+    static final long BACKOFF_MAX_MS = 6L * 60 * 60 * 1000;
+
+    private final ContentResolver resolver;
+
+    public FreshnessStore(Context context) {
+        resolver = context.getContentResolver();
+    }
+
+    /**
+     * The categories of cats that are due for a download at time now.
+     */
+    public int[] staleCategories(int[] cats, long now) {
+        long[] lastFetched = new long[OkProvider.CATXX.length];
+        long[] nextAttempt = new long[OkProvider.CATXX.length];
+        Cursor cursor = resolver.query(OkProvider.CONTENT_URI_META,
+                new String[]{OkProvider.COLUMN_META_CATEGORY, OkProvider.COLUMN_LAST_FETCHED,
+                        OkProvider.COLUMN_NEXT_ATTEMPT},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    int cat = cursor.getInt(0);
+                    if (cat >= 0 && cat < lastFetched.length) {
+                        lastFetched[cat] = cursor.getLong(1);
+                        nextAttempt[cat] = cursor.getLong(2);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        int[] stale = new int[cats.length];
+        int staleCnt = 0;
+        for (int cat : cats) {
+            if (now - lastFetched[cat] >= TTL_MS && now >= nextAttempt[cat]) {
+                stale[staleCnt++] = cat;
+            }
+        }
+        int[] result = new int[staleCnt];
+        System.arraycopy(stale, 0, result, 0, staleCnt);
+        return result;
+    }
+
+    public int[] staleCategories(long now) {
+        int[] all = new int[OkProvider.CATXX.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return staleCategories(all, now);
+    }
+
+    /**
+     * The category is up to date as of now, after a 200 that was written or a 304.
+     */
+    public void markFetched(int cat, long now) {
+        ContentValues values = new ContentValues();
+        values.put(OkProvider.COLUMN_META_CATEGORY, cat);
+        values.put(OkProvider.COLUMN_LAST_FETCHED, now);
+        values.put(OkProvider.COLUMN_FAILURES, 0);
+        values.put(OkProvider.COLUMN_NEXT_ATTEMPT, 0);
+        resolver.insert(OkProvider.CONTENT_URI_META, values);
+    }
+
+    /**
+     * The attempts of cat that failed since its last 200 or 304.
+     */
+    public int failures(int cat) {
+        Cursor cursor = resolver.query(OkProvider.CONTENT_URI_META,
+                new String[]{OkProvider.COLUMN_FAILURES},
+                OkProvider.SELECTION_META, new String[]{String.valueOf(cat)}, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Pushes the next attempt of cat out by base * 2^failures, capped at BACKOFF_MAX_MS.
+     */
+    public void markFailed(int cat, long now) {
+        int failures = failures(cat);
+        long backoff = BACKOFF_MAX_MS;
+        if (failures < 20) {
+            backoff = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << failures);
+        }
+        failures++;
+        Log.d(LOG_TAG, "cat=" + cat + " failures=" + failures + " retry in ms=" + backoff);
+
+        ContentValues values = new ContentValues();
+        values.put(OkProvider.COLUMN_META_CATEGORY, cat);
+        values.put(OkProvider.COLUMN_FAILURES, failures);
+        values.put(OkProvider.COLUMN_NEXT_ATTEMPT, now + backoff);
+        resolver.insert(OkProvider.CONTENT_URI_META, values);
+    }
+
+    /**
+     * Makes cat stale right away, e.g. after its rows were thrown away.
+     */
+    public void invalidate(int cat) {
+        ContentValues values = new ContentValues();
+        values.put(OkProvider.COLUMN_META_CATEGORY, cat);
+        values.put(OkProvider.COLUMN_LAST_FETCHED, 0);
+        values.put(OkProvider.COLUMN_FAILURES, 0);
+        values.put(OkProvider.COLUMN_NEXT_ATTEMPT, 0);
+        resolver.insert(OkProvider.CONTENT_URI_META, values);
+    }
+}
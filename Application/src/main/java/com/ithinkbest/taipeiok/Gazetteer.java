@@ -0,0 +1,186 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Offline geocoder over assets/gazetteer.tsv: road sections with the house numbers
+ * at both ends, and the centroid of every district.
+ * <p/>
+ * An address on a known road section is interpolated by its number, an address on
+ * a known road without a usable section or number gets the middle of the road,
+ * anything else the centroid of its district. Loaded once, read only afterwards.
+ */
+public final class Gazetteer {
+
+    static String LOG_TAG = "MARK987";
+    static final String ASSET = "gazetteer.tsv";
+    private static final String CHINESE_DIGITS = "〇一二三四五六七八九";
+
+    private static Gazetteer sInstance;
+
+    private final HashMap<String, double[]> centroids = new HashMap<String, double[]>();
+    private final HashMap<String, ArrayList<Section>> roads = new HashMap<String, ArrayList<Section>>();
+    private String[] roadNames; // longest first, 中山北路 before 中山路
+
+    private static class Section {
+        int section;
+        int fromNo;
+        int toNo;
+        double lat1, lng1, lat2, lng2;
+    }
+
+    public static synchronized Gazetteer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new Gazetteer();
+            try {
+                sInstance.load(context.getAssets().open(ASSET));
+            } catch (IOException e) {
+                // geocoding is best effort, rows are stored without coordinates
+                Log.d(LOG_TAG, "IOException " + e.toString());
+            }
+            sInstance.sortRoadNames();
+        }
+        return sInstance;
+    }
+
+    private Gazetteer() {
+    }
+
+    private void load(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] f = line.split("\t");
+                if (f[0].equals("D") && f.length == 4) {
+                    centroids.put(f[1], new double[]{Double.parseDouble(f[2]), Double.parseDouble(f[3])});
+                } else if (f[0].equals("R") && f.length == 9) {
+                    Section s = new Section();
+                    s.section = Integer.parseInt(f[2]);
+                    s.fromNo = Integer.parseInt(f[3]);
+                    s.toNo = Integer.parseInt(f[4]);
+                    s.lat1 = Double.parseDouble(f[5]);
+                    s.lng1 = Double.parseDouble(f[6]);
+                    s.lat2 = Double.parseDouble(f[7]);
+                    s.lng2 = Double.parseDouble(f[8]);
+                    ArrayList<Section> sections = roads.get(f[1]);
+                    if (sections == null) {
+                        sections = new ArrayList<Section>();
+                        roads.put(f[1], sections);
+                    }
+                    sections.add(s);
+                } else {
+                    Log.d(LOG_TAG, "gazetteer, bad line: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void sortRoadNames() {
+        roadNames = roads.keySet().toArray(new String[roads.size()]);
+        Arrays.sort(roadNames, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+    }
+
+    /**
+     * {lat, lng} of a shop, or null when neither its road nor its district is known.
+     * districtName is the name without postal code, e.g. 中正區, or null.
+     */
+    public double[] locate(String poiAddr, String displayAddr, String districtName) {
+        double[] at = locateOnRoad(poiAddr);
+        if (at == null) {
+            at = locateOnRoad(displayAddr);
+        }
+        if (at == null && districtName != null) {
+            at = centroids.get(districtName);
+        }
+        return at;
+    }
+
+    private double[] locateOnRoad(String address) {
+        for (String road : roadNames) {
+            int i = address.indexOf(road);
+            if (i < 0) {
+                continue;
+            }
+            i += road.length();
+            int section = 0;
+            int[] parsed = parseNumber(address, i);
+            if (parsed != null && parsed[1] < address.length() && address.charAt(parsed[1]) == '段') {
+                section = parsed[0];
+                parsed = parseNumber(address, parsed[1] + 1);
+            }
+            int number = parsed == null ? -1 : parsed[0];
+            return interpolate(roads.get(road), section, number);
+        }
+        return null;
+    }
+
+    private static double[] interpolate(ArrayList<Section> sections, int section, int number) {
+        Section hit = null;
+        for (Section s : sections) {
+            if (s.section == section) {
+                hit = s;
+                break;
+            }
+        }
+        if (hit == null) {
+            // unknown section, the middle of the whole road
+            Section first = sections.get(0);
+            Section last = sections.get(sections.size() - 1);
+            return new double[]{(first.lat1 + last.lat2) / 2, (first.lng1 + last.lng2) / 2};
+        }
+        double t = 0.5;
+        if (number >= 0 && hit.toNo > hit.fromNo) {
+            t = Math.max(0, Math.min(1, (number - hit.fromNo) / (double) (hit.toNo - hit.fromNo)));
+        }
+        return new double[]{hit.lat1 + t * (hit.lat2 - hit.lat1), hit.lng1 + t * (hit.lng2 - hit.lng1)};
+    }
+
+    /**
+     * {value, end} of the number at start, in 0-9, full width ０-９ or 一二三..., null if there is none.
+     * A lane (巷) number stands in for the house number, it is on the same stretch.
+     */
+    private static int[] parseNumber(String address, int start) {
+        int i = start;
+        int value = 0;
+        boolean any = false;
+        while (i < address.length()) {
+            char c = address.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= '０' && c <= '９') {
+                digit = c - '０';
+            } else {
+                digit = CHINESE_DIGITS.indexOf(c);
+            }
+            if (digit < 0) {
+                break;
+            }
+            value = value * 10 + digit;
+            any = true;
+            i++;
+        }
+        return any ? new int[]{value, i} : null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ithinkbest.taipeiok;
+
+/**
+ * Base 32 geohash of a lat/lng, the spatial key of the ok table.
+ * Shops in the same cell share a prefix, so a cell is one range scan
+ * on the geohash index.
+ */
+public final class GeoHash {
+
+    static final int PRECISION = 9; // about 5 m, what is stored
+    static final double METERS_PER_DEGREE = 111320.0;
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    public static String encode(double lat, double lng, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        char[] hash = new char[precision];
+        boolean even = true; // longitude first
+        int bit = 0;
+        int ch = 0;
+        int length = 0;
+        while (length < precision) {
+            if (even) {
+                double mid = (minLng + maxLng) / 2;
+                if (lng >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLng = mid;
+                } else {
+                    ch <<= 1;
+                    maxLng = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch <<= 1;
+                    maxLat = mid;
+                }
+            }
+            even = !even;
+            if (++bit == 5) {
+                hash[length++] = BASE32[ch];
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    public static double cellHeightDegrees(int precision) {
+        return 180.0 / (1L << (5 * precision / 2));
+    }
+
+    public static double cellWidthDegrees(int precision) {
+        return 360.0 / (1L << ((5 * precision + 1) / 2));
+    }
+
+    /**
+     * The shorter side of a cell around lat, in metres.
+     */
+    public static double cellMinMeters(int precision, double lat) {
+        double height = cellHeightDegrees(precision) * METERS_PER_DEGREE;
+        double width = cellWidthDegrees(precision) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        return Math.min(height, width);
+    }
+}
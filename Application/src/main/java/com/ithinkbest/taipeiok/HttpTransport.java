@@ -0,0 +1,154 @@
+package com.ithinkbest.taipeiok;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one HttpClient of the app.
+ * <p/>
+ * Connections to data.taipei.gov.tw are pooled and kept alive between
+ * categories, responses are asked for gzip and inflated while they are read.
+ * wireBytes counts what came over the network, decodedBytes what the parser got.
+ */
+public final class HttpTransport {
+
+    static String LOG_TAG = "MARK987";
+    static final int CONNECT_TIMEOUT_MS = 15000;
+    static final int READ_TIMEOUT_MS = 30000;
+    static final int MAX_CONNECTIONS = 8;
+
+    private static HttpTransport sInstance;
+
+    private final HttpClient client;
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    public static synchronized HttpTransport getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpTransport();
+        }
+        return sInstance;
+    }
+
+    private HttpTransport() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, "UTF-8");
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT_MS);
+        HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT_MS);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        // every category lives on the same host
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+        ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry);
+        client = new DefaultHttpClient(manager, params);
+    }
+
+    public HttpResponse execute(HttpGet httpGet) throws IOException {
+        httpGet.addHeader("Accept-Encoding", "gzip");
+        return client.execute(httpGet);
+    }
+
+    /**
+     * Body of a response, inflated if the server sent gzip.
+     * Closing it hands the connection back to the pool.
+     */
+    public InputStream openContent(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        InputStream in = new CountingInputStream(entity.getContent(), wireBytes);
+        Header encoding = entity.getContentEncoding();
+        if (encoding != null && encoding.getValue().toLowerCase(Locale.US).contains("gzip")) {
+            in = new GZIPInputStream(in);
+        }
+        return new CountingInputStream(in, decodedBytes);
+    }
+
+    /**
+     * Reads away a body we do not want, so the connection can be reused.
+     */
+    public void discard(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        try {
+            entity.consumeContent();
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "IOException " + e.toString());
+        }
+    }
+
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long n = super.skip(count);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Vector;
+
+/**
+ * Turns the data.taipei.gov.tw JSON of one category into rows of OkProvider.
+ * <p/>
+ * ingestStream() tokenizes the body while it is still arriving and stages it
+ * in batches of BATCH_SIZE rows, each written as soon as it is parsed, so the
+ * heap holds one batch instead of the whole payload. ingestString() is the old
+ * in-memory path, kept for the benchmark in IngestBenchmarkTest.
+ * <p/>
+ * finish() publishes the stage, see OkProvider.publish: shops are matched on
+ * row_key (name|poi_addr) and only rows whose content_hash changed are written,
+ * in one transaction. Readers see the old rows of a category or the new ones,
+ * never a mix, and nothing at all is published for a body that breaks off or
+ * fails the row count check.
+ */
+public class JsonIngest {
+
+    static String LOG_TAG = "MARK987";
+    static final int BATCH_SIZE = 200;
+    // a complete body with fewer rows than this share of the rows shown is not published
+    static final int MIN_KEPT_PERCENT = 50;
+    // what finish() returns when it left the old rows in place
+    static final int REJECTED = -1;
+    // a category failing this many attempts in a row publishes a short body all the same,
+    // it is taken as a real shrink; see FetchEngine
+    static final int MAX_REJECTIONS = 3;
+
+    private final ContentResolver resolver;
+    private final DistrictClassifier districts;
+    private final Gazetteer gazetteer;
+
+    public JsonIngest(Context context) {
+        resolver = context.getContentResolver();
+        districts = new DistrictClassifier(context.getResources().getStringArray(R.array.taipei_district));
+        gazetteer = Gazetteer.getInstance(context);
+    }
+
+    /**
+     * Receives the parsed rows of a download. first is true for the first
+     * batch. Once something was written, either finish() is called, when the
+     * body was parsed to the end, or abort(), when it broke off.
+     */
+    public interface BatchWriter {
+        void write(int cat, ContentValues[] batch, boolean first);
+
+        /**
+         * Returns the number of rows inserted, updated or deleted for cat,
+         * REJECTED when the old rows were kept.
+         */
+        int finish(int cat);
+
+        /**
+         * Drops what was written for cat, the old rows stay.
+         */
+        void abort(int cat);
+    }
+
+    /**
+     * Stages every batch through OkProvider.bulkInsert on the calling thread,
+     * the first one of a download replacing what an earlier one left in the
+     * stage. finish() publishes it: one transaction, one notification.
+     * Not thread safe, one writer thread at a time.
+     */
+    public final DirectWriter directWriter = new DirectWriter();
+
+    public final class DirectWriter implements BatchWriter {
+        // the categories with something staged since their first batch
+        private final HashSet<Integer> open = new HashSet<Integer>();
+
+        @Override
+        public void write(int cat, ContentValues[] batch, boolean first) {
+            if (open.add(cat) || first) {
+                resolver.delete(OkProvider.stageUri(cat), null, null);
+            }
+            resolver.bulkInsert(OkProvider.stageUri(cat), batch);
+        }
+
+        @Override
+        public int finish(int cat) {
+            return finish(cat, false);
+        }
+
+        /**
+         * finish(cat), publishing even a body that fails the row count check
+         * when publishAnyway is true.
+         */
+        public int finish(int cat, boolean publishAnyway) {
+            if (!open.remove(cat)) {
+                return 0;
+            }
+            Bundle extras = new Bundle();
+            extras.putBoolean(OkProvider.KEY_PUBLISH_ANYWAY, publishAnyway);
+            Bundle result = resolver.call(OkProvider.CONTENT_URI, OkProvider.METHOD_PUBLISH,
+                    String.valueOf(cat), extras);
+            return result == null ? REJECTED : result.getInt(OkProvider.KEY_CHANGED);
+        }
+
+        @Override
+        public void abort(int cat) {
+            if (open.remove(cat)) {
+                resolver.delete(OkProvider.stageUri(cat), null, null);
+            }
+        }
+    }
+
+    public int ingestStream(int cat, InputStream in) throws IOException {
+        return ingestStream(cat, in, directWriter);
+    }
+
+    /**
+     * Streaming path, returns the number of rows parsed.
+     * Nothing is handed to the writer before the first batch has been parsed,
+     * so an empty or broken download keeps the old rows.
+     */
+    public int ingestStream(int cat, InputStream in, BatchWriter writer) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        int batchCnt = 0;
+        int rows = 0;
+        boolean finished = false;
+        try {
+            try {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    batch[batchCnt++] = readShop(reader);
+                    if (batchCnt == BATCH_SIZE) {
+                        writer.write(cat, batch, rows == 0);
+                        rows += batchCnt;
+                        // the writer may still hold on to the old array
+                        batch = new ContentValues[BATCH_SIZE];
+                        batchCnt = 0;
+                    }
+                }
+                reader.endArray();
+            } finally {
+                reader.close();
+            }
+            if (batchCnt > 0) {
+                ContentValues[] tail = new ContentValues[batchCnt];
+                System.arraycopy(batch, 0, tail, 0, batchCnt);
+                writer.write(cat, tail, rows == 0);
+                rows += batchCnt;
+            }
+            if (rows > 0) {
+                writer.finish(cat);
+            }
+            finished = true;
+        } finally {
+            if (!finished && rows > 0) {
+                // broke off after the first batch
+                writer.abort(cat);
+            }
+        }
+        return rows;
+    }
+
+    public int ingestString(int cat, String strJson) {
+        return ingestString(cat, strJson, directWriter);
+    }
+
+    /**
+     * In-memory path: whole body as a String, a JSONArray and a Vector.
+     * Returns the number of rows parsed.
+     */
+    public int ingestString(int cat, String strJson, BatchWriter writer) {
+        if (strJson == null || strJson.length() == 0) {
+            Log.d(LOG_TAG, "NO JSON");
+            return 0;
+        }
+        Vector<ContentValues> cVVector = new Vector<ContentValues>();
+        boolean complete = false;
+        try {
+            JSONArray jsonArray = new JSONArray(strJson);
+            cVVector.ensureCapacity(jsonArray.length());
+            for (int i = 0; i < jsonArray.length(); i++) {
+                JSONObject jsonObject = jsonArray.getJSONObject(i);
+                cVVector.add(toValues(jsonObject.getString(OkProvider.COLUMN_NAME),
+                        jsonObject.getString(OkProvider.COLUMN_CERTIFICATION_CATEGORY),
+                        jsonObject.getString(OkProvider.COLUMN_TEL),
+                        jsonObject.getString(OkProvider.COLUMN_DISPLAY_ADDR),
+                        jsonObject.getString(OkProvider.COLUMN_POI_ADDR)));
+            }
+            complete = true;
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "JSONException " + e.toString());
+        }
+
+        // a broken body must not delete the rows after the point it broke
+        if (cVVector.size() == 0 || !complete) {
+            return cVVector.size();
+        }
+        ContentValues[] cvArray = new ContentValues[cVVector.size()];
+        cVVector.toArray(cvArray);
+        writer.write(cat, cvArray, true);
+        writer.finish(cat);
+        return cvArray.length;
+    }
+
+    /**
+     * Reads a whole body the way the old readRawJson() did.
+     */
+    static String readString(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            builder.append(line);
+        }
+        return builder.toString();
+    }
+
+    private ContentValues readShop(JsonReader reader) throws IOException {
+        String name = "";
+        String certification_category = "";
+        String tel = "";
+        String display_addr = "";
+        String poi_addr = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (key.equals(OkProvider.COLUMN_NAME)) {
+                name = reader.nextString();
+            } else if (key.equals(OkProvider.COLUMN_CERTIFICATION_CATEGORY)) {
+                certification_category = reader.nextString();
+            } else if (key.equals(OkProvider.COLUMN_TEL)) {
+                tel = reader.nextString();
+            } else if (key.equals(OkProvider.COLUMN_DISPLAY_ADDR)) {
+                display_addr = reader.nextString();
+            } else if (key.equals(OkProvider.COLUMN_POI_ADDR)) {
+                poi_addr = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return toValues(name, certification_category, tel, display_addr, poi_addr);
+    }
+
+    ContentValues toValues(String name, String certification_category, String tel,
+                           String display_addr, String poi_addr) {
+        ShopRow row = new ShopRow(name, certification_category, tel, display_addr, poi_addr, districts);
+        ContentValues values = new ContentValues();
+        values.put(OkProvider.COLUMN_NAME, row.name);
+        values.put(OkProvider.COLUMN_CERTIFICATION_CATEGORY, row.certificationCategory);
+        values.put(OkProvider.COLUMN_TEL, row.tel);
+        values.put(OkProvider.COLUMN_DISPLAY_ADDR, row.displayAddr);
+        values.put(OkProvider.COLUMN_POI_ADDR, row.poiAddr);
+        values.put(OkProvider.COLUMN_DISTRICT, row.districtName);
+        double[] at = gazetteer.locate(row.poiAddr, row.address,
+                row.district == districts.unknown() ? null : row.districtName.substring(4));
+        if (at == null) {
+            values.putNull(OkProvider.COLUMN_LAT);
+            values.putNull(OkProvider.COLUMN_LNG);
+            values.putNull(OkProvider.COLUMN_GEOHASH);
+        } else {
+            values.put(OkProvider.COLUMN_LAT, at[0]);
+            values.put(OkProvider.COLUMN_LNG, at[1]);
+            values.put(OkProvider.COLUMN_GEOHASH, GeoHash.encode(at[0], at[1], GeoHash.PRECISION));
+        }
+        values.put(OkProvider.COLUMN_ROW_KEY, row.rowKey);
+        values.put(OkProvider.COLUMN_CONTENT_HASH, row.contentHash);
+        return values;
+    }
+}
@@ -20,20 +20,25 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
+import android.app.LoaderManager;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.TaskStackBuilder;
-import android.content.ContentValues;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.CursorLoader;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.Loader;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.StrictMode;
+import android.os.SystemClock;
 import android.support.v4.app.ActionBarDrawerToggle;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.widget.LinearLayoutManager;
@@ -46,29 +51,13 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ListView;
+import android.widget.SearchView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.Spinner;
 import android.widget.TextView;
 
 
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Vector;
-
 //import com.example.android.navigationdrawer.R;
 //Toast com.example.android.navigationdrawer.R;
 
@@ -123,6 +112,7 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
         //
         notifyGooglePlay();
         notifyAppWebpage();
+        SyncUtils.createSyncAccount(this);
 
 
         mTitle = mDrawerTitle = getTitle();
@@ -173,6 +163,24 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.navigation_drawer, menu);
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            // search as you type, an empty query brings the category list back
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                Fragment fragment = getFragmentManager().findFragmentById(R.id.content_frame);
+                if (fragment instanceof TaipeiFragment) {
+                    ((TaipeiFragment) fragment).search(newText);
+                }
+                return true;
+            }
+        });
         return true;
     }
 
@@ -212,16 +220,17 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
 // potentially add data to the intent
                 int[] cats = {0, 1};
                 i.putExtra("CATS", cats);
+                i.putExtra(UpdateService.EXTRA_FORCE, true);
                 getApplicationContext().startService(i);
 
 
                 return true;
 
             case R.id.action_del_all:
-                StrictMode.ThreadPolicy policy = new StrictMode.
-                        ThreadPolicy.Builder().permitAll().build();
-                StrictMode.setThreadPolicy(policy);
-                getContentResolver().delete(OkProvider.CONTENT_URI, null, null);
+                // off the main thread, after a refresh that is running
+                Intent clear = new Intent(getApplicationContext(), UpdateService.class);
+                clear.putExtra(UpdateService.EXTRA_CLEAR, true);
+                getApplicationContext().startService(clear);
                 return true;
             case R.id.action_debug:
                 doingDebug();
@@ -233,7 +242,39 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        LocalBroadcastManager.getInstance(this).registerReceiver(mProgressReceiver,
+                new IntentFilter(UpdateService.ACTION_PROGRESS));
+    }
+
+    @Override
+    protected void onPause() {
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(mProgressReceiver);
+        super.onPause();
+    }
+
+    // progress of UpdateService in the action bar subtitle
+    private final BroadcastReceiver mProgressReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int done = intent.getIntExtra(UpdateService.EXTRA_DONE, 0);
+            int total = intent.getIntExtra(UpdateService.EXTRA_TOTAL, 0);
+            if (done < total) {
+                getActionBar().setSubtitle(getString(R.string.update_progress, done, total));
+            } else {
+                getActionBar().setSubtitle(null);
+            }
+        }
+    };
+
     private void doingDebug() {
+        Bundle report = getContentResolver().call(OkProvider.CONTENT_URI, OkProvider.METHOD_REPORT, null, null);
+        if (report != null) {
+            Log.d(LOG_TAG, report.getString(OkProvider.KEY_STATEMENTS));
+            Log.d(LOG_TAG, report.getString(OkProvider.KEY_RESULTS));
+        }
     }
 
     private void notifyGooglePlay() {
@@ -348,14 +389,26 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
     /**
      * Fragment that appears in the "content_frame", shows a planet
      */
-    public static class TaipeiFragment extends Fragment implements AdapterView.OnItemSelectedListener {
+    public static class TaipeiFragment extends Fragment implements AdapterView.OnItemSelectedListener,
+            LoaderManager.LoaderCallbacks<Cursor>, PagedShopAdapter.Listener {
         String[] Taipei_District = null;// = res.getStringArray(R.array.planets_array);
         String[] Certification_Category = null;
         ListView listView;
+        // the category or district, paged; listView only shows search results
+        RecyclerView shopList;
+        PagedShopAdapter pagedAdapter;
         Spinner spinner;
         SimpleCursorAdapter spinnerAdapter;
+        SimpleCursorAdapter listAdapter;
         int selectedCategory = 0;
 
+        // the spinner counts and the search results, queried and filled by CursorLoader off the main thread
+        private static final int LOADER_SUMMARY = 0;
+        private static final int LOADER_LIST = 1;
+        private static final String ARG_QUERY = "query";
+        // an ingest notifies per batch, reload at most this often
+        private static final long UPDATE_THROTTLE_MS = 500;
+
 
         public static final String ARG_PLANET_NUMBER = "planet_number";
 
@@ -372,48 +425,9 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
         }
 
 
-        private Cursor getSummary(int cat) {
-            Uri uri = OkProvider.CONTENT_URI_RAW_QUERY;
-            String[] projection = new String[]{OkProvider.COLUMN_ID,
-                    OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR};
-            //
-            String selection = OkProvider.COLUMN_CERTIFICATION_CATEGORY + "=\"" + Certification_Category[cat] + "\"";
-
-            String[] selectionArgs = null;
-            String sortOrder = null;
-
-            return getActivity().managedQuery(uri, projection, selection, selectionArgs,
-                    sortOrder);
-
-
-            //return null;
-        }
-
-
-        private void updateSpinner(int cat) {
-
-
-            spinnerAdapter = new SimpleCursorAdapter(getActivity(),
-                    android.R.layout.simple_list_item_2, getSummary(cat), new String[]{OkProvider.COLUMN_DISTRICT, "CNT"}, new int[]{
-                    android.R.id.text1, android.R.id.text2});
-            spinnerAdapter.notifyDataSetChanged();
-            spinner.setAdapter(spinnerAdapter);
-
-        }
-
-        private Cursor getList(int cat) {
-            Uri uri = OkProvider.CONTENT_URI;
-            String[] projection = new String[]{OkProvider.COLUMN_ID,
-                    OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR};
-            //
-            String selection = OkProvider.COLUMN_CERTIFICATION_CATEGORY + "=\"" + OkProvider.CATXX[cat] + "\"";
-
-            String[] selectionArgs = null;
-            String sortOrder = OkProvider.COLUMN_DISPLAY_ADDR;
-
-            return getActivity().managedQuery(uri, projection, selection, selectionArgs,
-                    sortOrder);
-        }
+        private static final String[] LIST_PROJECTION = {OkProvider.COLUMN_ID,
+                OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR,
+                OkProvider.COLUMN_LAT, OkProvider.COLUMN_LNG};
 
 
 //        private Cursor getListSummary(int cat) {
@@ -435,20 +449,48 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
 //        }
 
 
-        private Cursor getList(int cat, String district) {
-            Uri uri = OkProvider.CONTENT_URI;
-            String[] projection = new String[]{OkProvider.COLUMN_ID,
-                    OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR};
-            //
-            String selection = OkProvider.COLUMN_CERTIFICATION_CATEGORY + "=\"" + OkProvider.CATXX[cat] + "\""
-                    + " AND " + OkProvider.COLUMN_DISTRICT + " LIKE '%" + district + "%'";
-            //name like '% LIM %'
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            CursorLoader loader;
+            if (id == LOADER_SUMMARY) {
+                loader = OkProvider.summaryLoader(getActivity(), selectedCategory);
+            } else {
+                // shops of any category whose name or address contains the query
+                loader = OkProvider.searchLoader(getActivity(), args.getString(ARG_QUERY), LIST_PROJECTION);
+            }
+            loader.setUpdateThrottle(UPDATE_THROTTLE_MS);
+            return loader;
+        }
+
+        // the loader owns the cursors and closes the old one, so swap rather than change
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            if (loader.getId() == LOADER_SUMMARY) {
+                spinnerAdapter.swapCursor(cursor);
+            } else {
+                listAdapter.swapCursor(cursor);
+            }
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            if (loader.getId() == LOADER_SUMMARY) {
+                spinnerAdapter.swapCursor(null);
+            } else {
+                listAdapter.swapCursor(null);
+            }
+        }
 
-            String[] selectionArgs = null;
-            String sortOrder = OkProvider.COLUMN_DISPLAY_ADDR;
+        @Override
+        public void onClick(String displayAddr, boolean located, double lat, double lng) {
+            showOnMap(displayAddr, located, lat, lng);
+        }
 
-            return getActivity().managedQuery(uri, projection, selection, selectionArgs,
-                    sortOrder);
+        @Override
+        public void onPageLoaded(int index, int rows) {
+            if (index == 0) {
+                logFirstPopulated(rows);
+            }
         }
 
 
@@ -466,76 +508,46 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
             View rootView = inflater.inflate(R.layout.fragment_listview_v2, container, false);
             spinner = (Spinner) rootView.findViewById(R.id.spinner);
             listView = (ListView) rootView.findViewById(R.id.listView2);
+            shopList = (RecyclerView) rootView.findViewById(R.id.shopList);
 
             selectedCategory = getArguments().getInt(ARG_PLANET_NUMBER);
             spinner.setOnItemSelectedListener(this);
 
-           // new UpdateService().processJson(selectedCategory);
-            processJson(selectedCategory);
             spinnerAdapter = new SimpleCursorAdapter(getActivity(),
-                    android.R.layout.simple_list_item_2, getSummary(selectedCategory), new String[]{OkProvider.COLUMN_DISTRICT, "CNT"}, new int[]{
-                    android.R.id.text1, android.R.id.text2});
+                    android.R.layout.simple_list_item_2, null, new String[]{OkProvider.COLUMN_DISTRICT, "CNT"}, new int[]{
+                    android.R.id.text1, android.R.id.text2}, 0);
 
             spinner.setAdapter(spinnerAdapter);
 
 
 
-         //   updateSpinner(selectedCategory);
-            // NOT TO UPDATE HERE
-            //  processJson(selectedCategory);
-//            Intent i = new Intent(getActivity().getApplicationContext(), UpdateService.class);
-//// potentially add data to the intent
-//            int[] cats = {selectedCategory};
-//            i.putExtra("CATS", cats);
-//            getActivity().getApplicationContext().startService(i);
+            // show what is in taipei.db right away, UpdateService downloads
+            // the category in the background only if it is stale
+            requestRefresh(selectedCategory);
+
 
+            listAdapter = new SimpleCursorAdapter(getActivity(),
+                    android.R.layout.simple_list_item_2, null, new String[]{OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR}, new int[]{
+                    android.R.id.text1, android.R.id.text2}, 0);
 
-            Cursor mGrpMemberCursor = getList(selectedCategory);
-            getActivity().startManagingCursor(mGrpMemberCursor);
-            SimpleCursorAdapter adapter = new SimpleCursorAdapter(getActivity(),
-                    android.R.layout.simple_list_item_2, mGrpMemberCursor, new String[]{OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR}, new int[]{
-                    android.R.id.text1, android.R.id.text2});
+            listView.setAdapter(listAdapter);
 
-            listView.setAdapter(adapter);
+            pagedAdapter = new PagedShopAdapter(getActivity(), this);
+            shopList.setLayoutManager(new LinearLayoutManager(getActivity()));
+            shopList.setAdapter(pagedAdapter);
+            pagedAdapter.show(selectedCategory, -1);
 
             listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
                 @Override
                 public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                    TextView textView1 = (TextView) view.findViewById(android.R.id.text1);
                     TextView textView2 = (TextView) view.findViewById(android.R.id.text2);
-
-
-//                    String check = "臺北市松山區八德路四段138號B3F（京華城股份有限公司";
-
-
-                    String check = textView2.getText().toString();
-                    if (!(check.indexOf("台北市") == 0 || check.indexOf("臺北市") == 0)) {
-                        Log.d(LOG_TAG, "before  @@@@@ " + check);
-
-                        check = "台北市" + check;
-                        Log.d(LOG_TAG, "after adding prefix 台北市 @@@@@ " + check);
-
-                    }
-
-                    int temp = check.indexOf("tel");
-                    if (temp > 0) {
-                        Log.d(LOG_TAG, "to remove tel, before  @@@@@ " + check);
-
-                        check = check.substring(0, temp);
-                        Log.d(LOG_TAG, "to remove tel, after  @@@@@ " + check);
-
-                    }
-
-                    //  check=textView1.getText().toString()+", "+check;
-                    Log.d(LOG_TAG, "addr for map is " + check);
-                    String map = "http://maps.google.com/maps?q=" + check;
-
-// where check is the address string
-
-                    Intent i = new Intent(Intent.ACTION_VIEW, Uri.parse(map));
-
-                    // NOT TO START MAP AT THIS MOMENT
-//                    startActivity(i);
+                    // a point from Gazetteer beats the text address
+                    Cursor row = (Cursor) parent.getItemAtPosition(position);
+                    int lat = row.getColumnIndex(OkProvider.COLUMN_LAT);
+                    int lng = row.getColumnIndex(OkProvider.COLUMN_LNG);
+                    boolean located = lat >= 0 && lng >= 0 && !row.isNull(lat) && !row.isNull(lng);
+                    showOnMap(textView2.getText().toString(), located,
+                            located ? row.getDouble(lat) : 0, located ? row.getDouble(lng) : 0);
                 }
             });
             //http://stackoverflow.com/questions/9987551/how-to-open-google-maps-using-address
@@ -555,163 +567,96 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
             return rootView;
         }
 
-        public void processJson(int cat) {
-
-            StrictMode.ThreadPolicy policy = new StrictMode.
-                    ThreadPolicy.Builder().permitAll().build();
-            StrictMode.setThreadPolicy(policy);
-
-            Vector<ContentValues> cVVector = null;
-
-
-            String strJson = readRawJson(cat);
-
+        private void showOnMap(String displayAddr, boolean located, double lat, double lng) {
 
 
+//                    String check = "臺北市松山區八德路四段138號B3F（京華城股份有限公司";
 
 
+            String check = displayAddr;
+            if (!(check.indexOf("台北市") == 0 || check.indexOf("臺北市") == 0)) {
+                Log.d(LOG_TAG, "before  @@@@@ " + check);
 
+                check = "台北市" + check;
+                Log.d(LOG_TAG, "after adding prefix 台北市 @@@@@ " + check);
 
-            if (strJson==null || strJson.length()==0){
-                Log.d(LOG_TAG, "NO JSON" );
-                return;
             }
 
-            Log.d(LOG_TAG, "(first 50)input=" + strJson.substring(0, 50));
-            try {
-                JSONArray jsonArray = new JSONArray(strJson);
-                cVVector = new Vector<ContentValues>(jsonArray.length());
-
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject jsonObject = jsonArray.getJSONObject(i);
-                    String name = jsonObject.getString(OkProvider.COLUMN_NAME).trim();
-                    String certification_category = jsonObject.getString(OkProvider.COLUMN_CERTIFICATION_CATEGORY).trim();
-                    String tel = jsonObject.getString(OkProvider.COLUMN_TEL).trim();
-                    // not to show null
-                    if (tel==null || tel.equals("null")){
-                        tel="";
-                    }
-                    String display_addr = jsonObject.getString(OkProvider.COLUMN_DISPLAY_ADDR).trim();
-
-
-                    String poi_addr = jsonObject.getString(OkProvider.COLUMN_POI_ADDR).trim();
-
-                    //
-
-
-                    ContentValues weatherValues = new ContentValues();
-                    weatherValues.put(OkProvider.COLUMN_NAME, name);
-                    weatherValues.put(OkProvider.COLUMN_CERTIFICATION_CATEGORY, certification_category);
-                    weatherValues.put(OkProvider.COLUMN_TEL, tel);
-
-                    if (tel.equals("")){
-                        weatherValues.put(OkProvider.COLUMN_DISPLAY_ADDR, display_addr);
-
-                    }else{
-                        weatherValues.put(OkProvider.COLUMN_DISPLAY_ADDR, display_addr+"  tel: "+tel);
-
-                    }
-
+            int temp = check.indexOf("tel");
+            if (temp > 0) {
+                Log.d(LOG_TAG, "to remove tel, before  @@@@@ " + check);
 
-                    weatherValues.put(OkProvider.COLUMN_POI_ADDR, poi_addr);
+                check = check.substring(0, temp);
+                Log.d(LOG_TAG, "to remove tel, after  @@@@@ " + check);
 
-                    //
-                    String strDist=getDistrict(display_addr);
-                    weatherValues.put(OkProvider.COLUMN_DISTRICT, strDist);
-                    //       Log.d(LOG_TAG, "strDist=" + strDist + " COLUMN_DISPLAY_ADDR=" + display_addr);
-                    cVVector.add(weatherValues);
-
-//                    Log.d(LOG_TAG, "json " + i + " is " + name);
-                }
-            } catch (JSONException e) {
-//                e.printStackTrace();
-                Log.d(LOG_TAG, "JSONException "+e.toString());
-            } catch (Exception e){
-                Log.d(LOG_TAG, "Exception "+e.toString());
             }
 
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                String str=null;
-
-                String selection =OkProvider.COLUMN_CERTIFICATION_CATEGORY+"=\""+OkProvider.CATXX[cat]+"\"" ;
-
-                int delCnt=getActivity().getContentResolver().delete(OkProvider.CONTENT_URI,
-                        selection,
-                        null);
-                Log.d(LOG_TAG, "del cnt= "+ delCnt);
-
-
-
+            //  check=textView1.getText().toString()+", "+check;
+            Log.d(LOG_TAG, "addr for map is " + check);
+            String map = "http://maps.google.com/maps?q=" + check;
+            // a point from Gazetteer beats the text address
+            if (located) {
+                map = "http://maps.google.com/maps?q=" + lat + "," + lng;
+                Log.d(LOG_TAG, "point for map is " + map);
+            }
 
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                int bulkCnt=getActivity().getContentResolver().bulkInsert(OkProvider.CONTENT_URI, cvArray);
-                Log.d(LOG_TAG, "bulk cnt= "+ bulkCnt);
+// where check is the address string
 
+            Intent i = new Intent(Intent.ACTION_VIEW, Uri.parse(map));
 
-// delete old data so we don't build up an endless history
-//           getContentResolver().delete(OkProvider.CONTENT_URI,
-//                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-//                    new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-                // notifyWeather();
-                //      getContentResolver().
-            }
+            // NOT TO START MAP AT THIS MOMENT
+//                    startActivity(i);
+        }
 
+        @Override
+        public void onActivityCreated(Bundle savedInstanceState) {
+            super.onActivityCreated(savedInstanceState);
+            getLoaderManager().initLoader(LOADER_SUMMARY, null, this);
+        }
 
+        @Override
+        public void onDestroyView() {
+            pagedAdapter.close();
+            super.onDestroyView();
         }
 
-        String getDistrict(String address){
-            String strDist=null;
-            int knownDist= Taipei_District.length-1;
-            for (int i=0;i< Taipei_District.length-1;i++){
-                strDist= Taipei_District[i].substring(4);
-                if (address.indexOf(strDist)>=0){
-                    knownDist=i;
-                    break;
-                }
+        void search(String query) {
+            if (listView == null) {
+                return;
             }
-            return Taipei_District[knownDist];
+            if (query == null || query.trim().length() == 0) {
+                // back to the district in the spinner
+                getLoaderManager().destroyLoader(LOADER_LIST);
+                listView.setVisibility(View.GONE);
+                shopList.setVisibility(View.VISIBLE);
+                return;
+            }
+            Log.d(LOG_TAG, "search '" + query + "'");
+            Bundle args = new Bundle();
+            args.putString(ARG_QUERY, query);
+            getLoaderManager().restartLoader(LOADER_LIST, args, this);
+            shopList.setVisibility(View.GONE);
+            listView.setVisibility(View.VISIBLE);
         }
-        public String readRawJson(int cat) {
-            StringBuilder builder = new StringBuilder();
-            HttpClient client = new DefaultHttpClient();
-//        HttpGet httpGet = new HttpGet("https://bugzilla.mozilla.org/rest/bug?assigned_to=lhenry@mozilla.com");
-            //  String str = "http://data.taipei.gov.tw/opendata/apply/json/QTdBNEQ5NkQtQkM3MS00QUI2LUJENTctODI0QTM5MkIwMUZE";
-            String str=OkProvider.JSNXX[cat];
-
 
+        // time to first populated list, with and without R.bool.install_seed
+        private static boolean sPopulated = false;
 
-            HttpGet httpGet = new HttpGet(str);
-            Log.d(LOG_TAG, "new HttpGet(str) => " + str);
-            try {
-                HttpResponse response = client.execute(httpGet);
-                StatusLine statusLine = response.getStatusLine();
-                int statusCode = statusLine.getStatusCode();
-                if (statusCode == 200) {
-                    HttpEntity entity = response.getEntity();
-                    InputStream content = entity.getContent();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(content));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        builder.append(line);
-                    }
-                } else {
-                    Log.e(LOG_TAG, "Failed to download file");
-                }
-            } catch (ClientProtocolException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }            catch (Exception e){
-
-                Log.d(LOG_TAG, "Exception "+e.toString());
-
+        private static void logFirstPopulated(int rows) {
+            if (!sPopulated && rows > 0) {
+                sPopulated = true;
+                Log.d(LOG_TAG, "first populated list, ms since start="
+                        + (SystemClock.elapsedRealtime() - OkProvider.sCreatedAt));
             }
-            return builder.toString();
         }
 
-
+        private void requestRefresh(int cat) {
+            Context context = getActivity().getApplicationContext();
+            Intent i = new Intent(context, UpdateService.class);
+            int[] cats = {cat};
+            i.putExtra("CATS", cats);
+            context.startService(i);
+        }
 
         @Override
         public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
@@ -725,13 +670,7 @@ public class NavigationDrawerActivity extends Activity implements PlanetAdapter.
                 String strDist = textView.getText().toString();
                 Log.d(LOG_TAG, " textView:" + strDist);
 
-                Cursor mGrpMemberCursor = getList(selectedCategory, strDist);
-                getActivity().startManagingCursor(mGrpMemberCursor);
-                SimpleCursorAdapter adapter = new SimpleCursorAdapter(getActivity(),
-                        android.R.layout.simple_list_item_2, mGrpMemberCursor, new String[]{OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR}, new int[]{
-                        android.R.id.text1, android.R.id.text2});
-
-                listView.setAdapter(adapter);
+                pagedAdapter.show(selectedCategory, id);
             } catch (Exception e) {
                 Log.d(LOG_TAG, "onItemSelected, textView is null");
 
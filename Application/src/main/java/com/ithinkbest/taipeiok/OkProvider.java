@@ -1,21 +1,33 @@
 package com.ithinkbest.taipeiok;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.Toast;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 
-public class OkProvider extends ContentProvider {
+public class OkProvider extends ContentProvider implements OkSchema {
     static String LOG_TAG = "MARK987";
     // ### NEED TO CHANGE TO YOUR DOMAIN
     // static final String PROVIDER_NAME =
@@ -24,12 +36,28 @@ public class OkProvider extends ContentProvider {
 
     private static final String SUB1 = "sub1";
     private static final String SUB2 = "sub2"; // for rawQuery
+    private static final String SUB3 = "meta"; // per category http validators
+    private static final String SUB4 = "nearby"; // ?lat=&lng=&k= or ?lat=&lng=&radius=
+    private static final String SUB5 = "search"; // ?q=&limit=
+    private static final String SUB6 = "stage"; // stage/#: a download of category # before publish
+    // sub1/category/#, sub1/category/#/district/#: the shops of one category or district,
+    // notified on that uri so observers of the other categories are left alone
+    private static final String PATH_CATEGORY = "category";
+    private static final String PATH_DISTRICT = "district";
 
     private static final String URL = "content://" + PROVIDER_NAME + "/" + SUB1;
     private static final String URL_RAW_QUERY = "content://" + PROVIDER_NAME + "/" + SUB2;
+    private static final String URL_META = "content://" + PROVIDER_NAME + "/" + SUB3;
+    private static final String URL_NEARBY = "content://" + PROVIDER_NAME + "/" + SUB4;
+    private static final String URL_SEARCH = "content://" + PROVIDER_NAME + "/" + SUB5;
+    private static final String URL_STAGE = "content://" + PROVIDER_NAME + "/" + SUB6;
 
     static final Uri CONTENT_URI = Uri.parse(URL);
     static final Uri CONTENT_URI_RAW_QUERY = Uri.parse(URL_RAW_QUERY);
+    static final Uri CONTENT_URI_META = Uri.parse(URL_META);
+    static final Uri CONTENT_URI_NEARBY = Uri.parse(URL_NEARBY);
+    static final Uri CONTENT_URI_SEARCH = Uri.parse(URL_SEARCH);
+    static final Uri CONTENT_URI_STAGE = Uri.parse(URL_STAGE);
 
     // `id` int(11) NOT NULL auto_increment,
     // `username` varchar(20) NOT NULL,
@@ -43,6 +71,12 @@ public class OkProvider extends ContentProvider {
 
     static final int uriCode = 1;
     static final int uriCodeRawQuery = 2;
+    static final int uriCodeMeta = 3;
+    static final int uriCodeNearby = 4;
+    static final int uriCodeSearch = 5;
+    static final int uriCodeCategory = 6;
+    static final int uriCodeDistrict = 7;
+    static final int uriCodeStage = 8;
 
 
     private static HashMap<String, String> values;
@@ -54,6 +88,13 @@ public class OkProvider extends ContentProvider {
         uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         uriMatcher.addURI(PROVIDER_NAME, SUB1, uriCode);
         uriMatcher.addURI(PROVIDER_NAME, SUB2, uriCodeRawQuery);
+        uriMatcher.addURI(PROVIDER_NAME, SUB3, uriCodeMeta);
+        uriMatcher.addURI(PROVIDER_NAME, SUB4, uriCodeNearby);
+        uriMatcher.addURI(PROVIDER_NAME, SUB5, uriCodeSearch);
+        uriMatcher.addURI(PROVIDER_NAME, SUB1 + "/" + PATH_CATEGORY + "/#", uriCodeCategory);
+        uriMatcher.addURI(PROVIDER_NAME, SUB1 + "/" + PATH_CATEGORY + "/#/" + PATH_DISTRICT + "/#",
+                uriCodeDistrict);
+        uriMatcher.addURI(PROVIDER_NAME, SUB6 + "/#", uriCodeStage);
 
     }
 //    <item>旅館業</item>
@@ -70,20 +111,8 @@ public class OkProvider extends ContentProvider {
 //    <item>中央廚房</item>
 //    <item>休憩餐飲業</item>
     private SQLiteDatabase sqlDB;
-    static final String CAT00 = "旅館業";
-    static final String CAT01 = "美容美髮業";
-    static final String CAT02 = "電影片映演業";
-    static final String CAT03 = "游泳業";
-    static final String CAT04 = "浴室業";
-    static final String CAT05 = "娛樂業";
-    static final String CAT06 = "製麵業及包子饅頭製作業";
-    static final String CAT07 = "食品販售業";
-    static final String CAT08 = "一般餐飲業";
-    static final String CAT09 = "飲冰品業";
-    static final String CAT10 = "烘焙業";
-    static final String CAT11 = "中央廚房";
-    static final String CAT12 = "休憩餐飲業";
 
+    // the feed of each category of OkSchema.CATXX, same index
     static final String JSN00="http://data.taipei.gov.tw/opendata/apply/json/QTdBNEQ5NkQtQkM3MS00QUI2LUJENTctODI0QTM5MkIwMUZE";
     static final String JSN01="http://data.taipei.gov.tw/opendata/apply/json/NzQzQjFGQjUtNzUxMi00RkUxLUIwQ0UtOUQxNjQ4MkExMDBD";
     static final String JSN02="http://data.taipei.gov.tw/opendata/apply/json/NEMwNDE1OTEtRTJDOC00NTM2LUI1QkItMjc3NDJBMDU3MjNE";
@@ -97,7 +126,6 @@ public class OkProvider extends ContentProvider {
     static final String JSN10="http://data.taipei.gov.tw/opendata/apply/json/QzgwMEFBMjUtMjlCNS00OUZDLUE2MzgtQUIyRDJBRDM5NjJB";
     static final String JSN11="http://data.taipei.gov.tw/opendata/apply/json/NEI5ODUxQzMtRTc5MS00MjJCLTk1QTMtMTkxRUFCQTBBMzY5";
     static final String JSN12="http://data.taipei.gov.tw/opendata/apply/json/QTBEMTY0RUEtMjgyNi00Q0I1LTkwNzMtMjlDQUM0MkNBOTdD";
-    public final static String[] CATXX= {CAT00,CAT01,CAT02,CAT03,CAT04,CAT05,CAT06,CAT07,CAT08,CAT09,CAT10,CAT11,CAT12};
     public final static String[] JSNXX = {JSN00,JSN01,JSN02,JSN03,JSN04,JSN05,JSN06,JSN07,JSN08,JSN09,JSN10,JSN11,JSN12};
 
 
@@ -126,50 +154,214 @@ public class OkProvider extends ContentProvider {
 //    * 顯示用地址 display_addr
 //    * 系統辨識用地址 poi_addrc
 
-    static final String COLUMN_ID = "_id"; // local ID
-    static final String COLUMN_NAME = "name";
-    static final String COLUMN_CERTIFICATION_CATEGORY = "certification_category";
-    static final String COLUMN_TEL = "tel";
-    static final String COLUMN_DISPLAY_ADDR = "display_addr";
-    static final String COLUMN_POI_ADDR = "poi_addr";
-
-    //
-    static final String COLUMN_DISTRICT = "district";
-
-
-    static private final String DATABASE_NAME = "taipei.db"; // YOUR DESIRED DATABASE
-    static private final String TABLE_NAME = "ok"; // YOUR DESIRED TABLE
-    static private final int DATABASE_VERSION = 5; // ### need to increase when change
-
-    static private final String COL0 = COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT";
-    static private final String COL1 = COLUMN_NAME + " TEXT NOT NULL ";
-    static private final String COL2 = COLUMN_CERTIFICATION_CATEGORY + " TEXT NOT NULL ";
-    static private final String COL3 = COLUMN_TEL + " TEXT NOT NULL ";
-    static private final String COL4 = COLUMN_DISPLAY_ADDR + " TEXT NOT NULL ";
-    static private final String COL5 = COLUMN_POI_ADDR + " TEXT NOT NULL ";
-
-    //
-    static private final String COL6 = COLUMN_DISTRICT + " TEXT NOT NULL ";
-
-    // table structure
-    static private final String CREATE_DB_TABLE = " CREATE TABLE " + TABLE_NAME + " ("
-            + COL0 + ","
-            + COL1 + ","
-            + COL2 + ","
-            + COL3 + ","
-            + COL4 + ","
-            + COL5 + ","
-            + COL6 + " "
-            + ");";
+    // the tables and their columns are in OkSchema.
+    // only in CONTENT_URI_NEARBY results, square metres
+    static final String COLUMN_DISTANCE_SQ = "distance_sq";
+
+    static final String PARAM_LAT = "lat";
+    static final String PARAM_LNG = "lng";
+    static final String PARAM_K = "k";
+    static final String PARAM_RADIUS = "radius"; // metres
+    static final int DEFAULT_K = 10;
+    // The shapes the app queries, as constant SQL with the codes bound: one compiled
+    // statement per shape, whatever the category or district, and nothing to inject.
+    static final String SELECTION_CATEGORY = COLUMN_CATEGORY_ID + "=?";
+    static final String SELECTION_DISTRICT = COLUMN_CATEGORY_ID + "=? AND " + COLUMN_DISTRICT_ID + "=?";
+    static final String SELECTION_ID = COLUMN_ID + "=?";
+    // keyset paging on ORDER_PAGE: the rows after (display_addr, _id) of the last row of a page
+    static final String SELECTION_AFTER = COLUMN_DISPLAY_ADDR + ">=? AND (" + COLUMN_DISPLAY_ADDR + ">? OR "
+            + COLUMN_ID + ">?)";
+    static final String ORDER_PAGE = COLUMN_DISPLAY_ADDR + "," + COLUMN_ID;
+
+    static final String PARAM_Q = "q";
+    static final String PARAM_LIMIT = "limit";
+    static final int DEFAULT_SEARCH_LIMIT = 50; // one screen and a bit
+
+    static final String SELECTION_META = COLUMN_META_CATEGORY + "=?";
+
+    static final String DATABASE_NAME = "taipei.db"; // YOUR DESIRED DATABASE
+    // the version of the first release; older databases are dropped and rebuilt from ResponseCache
+    static private final int FIRST_MIGRATED_VERSION = 5;
+
+    // the columns publish() copies from the stage into ok
+    static private final String STAGED_COLUMNS = COLUMN_NAME + "," + COLUMN_CATEGORY_ID + "," + COLUMN_TEL + ","
+            + COLUMN_DISPLAY_ADDR + "," + COLUMN_POI_ADDR + "," + COLUMN_DISTRICT_ID + "," + COLUMN_ROW_KEY + ","
+            + COLUMN_CONTENT_HASH + "," + COLUMN_LAT + "," + COLUMN_LNG + "," + COLUMN_GEOHASH;
+
+    // the spinner, one summary row per district
+    static private final String SQL_SUMMARY = "SELECT " + COLUMN_DISTRICT_ID + " AS " + COLUMN_ID + ","
+            + TABLE_DISTRICT + "." + COLUMN_DICTIONARY_NAME + " AS " + COLUMN_DISTRICT + ","
+            + COLUMN_COUNT + " AS CNT"
+            + " FROM " + TABLE_SUMMARY
+            + " LEFT JOIN " + TABLE_DISTRICT + " ON " + TABLE_DISTRICT + "." + COLUMN_ID + "=" + COLUMN_DISTRICT_ID
+            + " WHERE " + SELECTION_CATEGORY
+            + " ORDER BY " + COLUMN_DISTRICT_ID;
+
+    // providers are created before any activity, the clock for time to first list
+    static long sCreatedAt;
+
+    // call() method returning the reports of statementStats and resultCache, for the Debug menu
+    static final String METHOD_REPORT = "report";
+    static final String KEY_STATEMENTS = "statements";
+    static final String KEY_RESULTS = "results";
+    // call() method publishing the stage of the category in arg, see publish()
+    static final String METHOD_PUBLISH = "publish";
+    static final String KEY_PUBLISH_ANYWAY = "publish_anyway";
+    static final String KEY_CHANGED = "changed";
+
+    // what the statement cache of sqlDB gets to reuse
+    private final StatementCacheStats statementStats = new StatementCacheStats();
+    // results of query(), of this provider and its database only
+    private final ResultCache resultCache = new ResultCache();
+
+    /**
+     * The uri of the shops of category cat. Writes through it notify only it.
+     */
+    static Uri categoryUri(long cat) {
+        return CONTENT_URI.buildUpon().appendPath(PATH_CATEGORY).appendPath(String.valueOf(cat)).build();
+    }
+
+    /**
+     * The uri of the shops of category cat in district, below categoryUri(cat).
+     */
+    static Uri districtUri(long cat, long district) {
+        return categoryUri(cat).buildUpon().appendPath(PATH_DISTRICT).appendPath(String.valueOf(district)).build();
+    }
+
+    /**
+     * The staged download of category cat: bulkInsert adds to it, delete drops it.
+     */
+    static Uri stageUri(long cat) {
+        return ContentUris.withAppendedId(CONTENT_URI_STAGE, cat);
+    }
+
+    /**
+     * The shops of category cat.
+     */
+    static Cursor queryCategory(ContentResolver resolver, int cat, String[] projection, String sortOrder) {
+        return resolver.query(categoryUri(cat), projection, null, null, sortOrder);
+    }
+
+    /**
+     * The shops of category cat in district, a code from querySummary.
+     */
+    static Cursor queryDistrict(ContentResolver resolver, int cat, long district, String[] projection,
+                                String sortOrder) {
+        return resolver.query(districtUri(cat, district), projection, null, null, sortOrder);
+    }
+
+    /**
+     * One row per district of category cat: _id (the district code), district and CNT.
+     */
+    static Cursor querySummary(ContentResolver resolver, int cat) {
+        return resolver.query(CONTENT_URI_RAW_QUERY, null, SELECTION_CATEGORY,
+                new String[]{String.valueOf(cat)}, null);
+    }
+
+    /**
+     * At most limit shops of category cat, of one district unless district is -1,
+     * in ORDER_PAGE order. afterAddr and afterId are the last row of the page
+     * before, null for the first page.
+     */
+    static Cursor queryPage(ContentResolver resolver, int cat, long district, String afterAddr, long afterId,
+                            int limit, String[] projection) {
+        String selection = null;
+        String[] args = null;
+        if (afterAddr != null) {
+            selection = SELECTION_AFTER;
+            args = new String[]{afterAddr, afterAddr, String.valueOf(afterId)};
+        }
+        Uri uri = (district < 0 ? categoryUri(cat) : districtUri(cat, district)).buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit)).build();
+        return resolver.query(uri, projection, selection, args, ORDER_PAGE);
+    }
+
+    /**
+     * querySummary in a loader.
+     */
+    static CursorLoader summaryLoader(Context context, int cat) {
+        return new CursorLoader(context, CONTENT_URI_RAW_QUERY, null, SELECTION_CATEGORY,
+                new String[]{String.valueOf(cat)}, null);
+    }
+
+    /**
+     * The shops of any category whose name or address contains q, in a loader.
+     */
+    static CursorLoader searchLoader(Context context, String q, String[] projection) {
+        Uri uri = CONTENT_URI_SEARCH.buildUpon().appendQueryParameter(PARAM_Q, q).build();
+        return new CursorLoader(context, uri, projection, null, null, null);
+    }
+
+    /**
+     * This process's OkProvider behind resolver, or null when it lives elsewhere
+     * and only the ContentValues calls reach it.
+     */
+    static OkProvider local(ContentResolver resolver) {
+        ContentProviderClient client = resolver.acquireContentProviderClient(CONTENT_URI);
+        if (client == null) {
+            return null;
+        }
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            return provider instanceof OkProvider ? (OkProvider) provider : null;
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * A loader writing straight into sqlDB, see BulkLoader. Call finish() on it.
+     */
+    BulkLoader newBulkLoader(int chunkSize) {
+        return new BulkLoader(sqlDB, this, chunkSize);
+    }
+
+    /**
+     * Switches the open database to profile, for ContentionBenchmarkTest to
+     * compare journal modes on its scratch database. Not while a transaction is open.
+     */
+    void applyProfile(DatabaseProfile profile) {
+        Log.d(LOG_TAG, DATABASE_NAME + " profile " + profile);
+        profile.configure(sqlDB);
+    }
 
     @Override
     public boolean onCreate() {
+        sCreatedAt = SystemClock.elapsedRealtime();
+        SeedInstaller.installIfMissing(getContext(), DATABASE_NAME);
          dbHelper = new DatabaseHelper(getContext());
         sqlDB = dbHelper.getWritableDatabase();
-        if (sqlDB != null) {
-            return true;
+        if (sqlDB == null) {
+            return false;
+        }
+        sqlDB.setMaxSqlCacheSize(StatementCacheStats.SIZE);
+        if (dbHelper.recreated) {
+            rebuildFromCache();
+        }
+        return true;
+    }
+
+    // fills the tables DatabaseHelper.recreate emptied from the raw bodies we still have,
+    // no network needed; once the upgrade is committed, not from inside it
+    private void rebuildFromCache() {
+        int[] cats = new int[CATXX.length];
+        for (int i = 0; i < cats.length; i++) {
+            cats[i] = i;
+        }
+        Intent i = new Intent(getContext(), UpdateService.class);
+        i.putExtra("CATS", cats);
+        i.putExtra(UpdateService.EXTRA_OFFLINE, true);
+        getContext().startService(i);
+    }
+
+    /**
+     * Closes the database, for the tests that open a provider of their own.
+     */
+    @Override
+    public void shutdown() {
+        if (dbHelper != null) {
+            dbHelper.close();
         }
-        return false;
     }
 
 
@@ -189,40 +381,201 @@ public class OkProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        int match = uriMatcher.match(uri);
+        if (match == uriCodeMeta) {
+            // written without notifyChange, never cached
+            return queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        String key = ResultCache.key(uri, projection, selection, selectionArgs, sortOrder);
+        ResultCache.Snapshot snapshot = resultCache.get(key);
+        if (snapshot == null) {
+            long generation = resultCache.generation();
+            Cursor cursor = queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+            if (cursor.getCount() > ResultCache.MAX_ROWS) {
+                return cursor;
+            }
+            try {
+                snapshot = new ResultCache.Snapshot(cursor, scope(uri, match, selectionArgs));
+            } finally {
+                cursor.close();
+            }
+            resultCache.put(key, snapshot, generation);
+        }
+        Cursor cursor = snapshot.cursor();
+        cursor.setNotificationUri(getContext().getContentResolver(), snapshot.notifyUri);
+        return cursor;
+    }
+
+    private Cursor queryDatabase(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
 
         // Used to create a SQL query
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
 
         // Set table to query
-        queryBuilder.setTables(TABLE_NAME);
+        queryBuilder.setTables(VIEW_NAME);
 
         // Used to match uris with Content Providers
-        switch (uriMatcher.match(uri)) {
+        int match = uriMatcher.match(uri);
+        switch (match) {
+            case uriCodeCategory:
+            case uriCodeDistrict:
+                selection = scopedSelection(match, selection);
+                selectionArgs = scopedArgs(uri, selectionArgs);
+                // fall through
             case uriCode:
 
                 // A projection map maps from passed column names to database column
                 // names
                 queryBuilder.setProjectionMap(values);
                 break;
+            case uriCodeMeta:
+                queryBuilder.setTables(TABLE_META);
+                break;
             case uriCodeRawQuery:
-            String sql="SELECT "+COLUMN_ID+","+
-                    COLUMN_DISTRICT+", COUNT("+COLUMN_DISTRICT+") AS CNT"+
-                    " FROM "+TABLE_NAME+
-                    " WHERE  "+selection+
-                    " GROUP BY "+COLUMN_DISTRICT;
-                Log.d(LOG_TAG, "############## raw query ############"+sql);
-                return dbHelper.getReadableDatabase().rawQuery(sql, null);
+                // only by category, the caller's selection is never spliced into the SQL
+                if (!SELECTION_CATEGORY.equals(selection) || selectionArgs == null || selectionArgs.length != 1) {
+                    throw new IllegalArgumentException("summary is by " + SELECTION_CATEGORY + ": " + selection);
+                }
+                statementStats.record(SQL_SUMMARY);
+                Cursor summary = dbHelper.getReadableDatabase().rawQuery(SQL_SUMMARY, selectionArgs);
+                // the counts follow the rows of the category, a loader reloads with them
+                summary.setNotificationUri(getContext().getContentResolver(), scope(uri, match, selectionArgs));
+                return summary;
           //  break;
+            case uriCodeNearby:
+                return queryNearby(uri, projection, selection, selectionArgs);
+            case uriCodeSearch:
+                return querySearch(uri, projection, selection, selectionArgs, sortOrder);
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
         // Cursor provides read and write access to the database
-        Cursor cursor = queryBuilder.query(sqlDB, projection, selection,
-                selectionArgs, null, null, sortOrder);
+        String sql = queryBuilder.buildQuery(projection, selection, null, null, sortOrder, limit(uri));
+        statementStats.record(sql);
+        Cursor cursor = sqlDB.rawQuery(sql, selectionArgs);
 
         // Register to watch for URI changes
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), scope(uri, match, selectionArgs));
+        return cursor;
+    }
+
+    // the narrowest uri a change to what uri reads is notified on; selectionArgs
+    // of a summary have been checked by then
+    private static Uri scope(Uri uri, int match, String[] selectionArgs) {
+        switch (match) {
+            case uriCodeCategory:
+            case uriCodeDistrict:
+                return uri.buildUpon().clearQuery().build();
+            case uriCodeRawQuery:
+                return categoryUri(Long.parseLong(selectionArgs[0]));
+            default:
+                return CONTENT_URI;
+        }
+    }
+
+    // the category, and district, of a uriCodeCategory or uriCodeDistrict uri as a selection
+    private static String scopedSelection(int match, String selection) {
+        String path = match == uriCodeDistrict ? SELECTION_DISTRICT : SELECTION_CATEGORY;
+        if (selection == null || selection.length() == 0) {
+            return path;
+        }
+        return path + " AND (" + selection + ")";
+    }
+
+    // the codes in the path of uri, then selectionArgs
+    private static String[] scopedArgs(Uri uri, String[] selectionArgs) {
+        List<String> segments = uri.getPathSegments();
+        // sub1/category/#[/district/#]
+        String[] path = segments.size() > 3 ? new String[]{segments.get(2), segments.get(4)}
+                : new String[]{segments.get(2)};
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return path;
+        }
+        String[] args = new String[path.length + selectionArgs.length];
+        System.arraycopy(path, 0, args, 0, path.length);
+        System.arraycopy(selectionArgs, 0, args, path.length, selectionArgs.length);
+        return args;
+    }
+
+    // PARAM_LIMIT as a number, it goes into the SQL
+    private static String limit(Uri uri) {
+        String limit = uri.getQueryParameter(PARAM_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+        try {
+            return String.valueOf(Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad " + PARAM_LIMIT + " " + limit);
+        }
+    }
+
+    private Cursor queryNearby(Uri uri, String[] projection, String selection, String[] selectionArgs) {
+        String lat = uri.getQueryParameter(PARAM_LAT);
+        String lng = uri.getQueryParameter(PARAM_LNG);
+        if (lat == null || lng == null) {
+            throw new IllegalArgumentException("lat and lng needed: " + uri);
+        }
+        String radius = uri.getQueryParameter(PARAM_RADIUS);
+        String k = uri.getQueryParameter(PARAM_K);
+        Cursor cursor;
+        // SpatialQuery rejects a point off the map, a negative radius and k < 1
+        if (radius != null) {
+            cursor = SpatialQuery.within(sqlDB, VIEW_NAME, projection, selection, selectionArgs,
+                    parseDouble(uri, lat), parseDouble(uri, lng), parseDouble(uri, radius));
+        } else {
+            cursor = SpatialQuery.nearest(sqlDB, VIEW_NAME, projection, selection, selectionArgs,
+                    parseDouble(uri, lat), parseDouble(uri, lng), k == null ? DEFAULT_K : parseInt(uri, k));
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+        return cursor;
+    }
+
+    // a query parameter that is not a number is a bad uri, not a crash of the provider
+    private static double parseDouble(Uri uri, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + value + " in " + uri);
+        }
+    }
+
+    private static int parseInt(Uri uri, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + value + " in " + uri);
+        }
+    }
+
+    private Cursor querySearch(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                               String sortOrder) {
+        String q = uri.getQueryParameter(PARAM_Q);
+        String match = q == null ? null : SearchTokens.matchQuery(q);
+        String limit = uri.getQueryParameter(PARAM_LIMIT);
+        String where = COLUMN_ID + " IN (SELECT docid FROM " + SearchIndex.TABLE
+                + " WHERE " + SearchIndex.TABLE + " MATCH ?)";
+        String[] whereArgs = {match};
+        if (selection != null && selection.length() > 0) {
+            where += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                whereArgs = new String[selectionArgs.length + 1];
+                whereArgs[0] = match;
+                System.arraycopy(selectionArgs, 0, whereArgs, 1, selectionArgs.length);
+            }
+        }
+        if (match == null) {
+            // nothing searchable typed yet, an empty result with the right columns
+            where = "0";
+            whereArgs = null;
+        }
+        String sql = SQLiteQueryBuilder.buildQueryString(false, VIEW_NAME, projection, where, null, null, sortOrder,
+                limit == null ? String.valueOf(DEFAULT_SEARCH_LIMIT) : limit);
+        statementStats.record(sql);
+        Cursor cursor = sqlDB.rawQuery(sql, whereArgs);
+        cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
         return cursor;
     }
 
@@ -236,7 +589,17 @@ public class OkProvider extends ContentProvider {
             // vnd.android.cursor.dir/cpcontacts states that we expect multiple
             // pieces of data
             case uriCode:
+            case uriCodeCategory:
+            case uriCodeDistrict:
                 return "vnd.android.cursor.dir/" + SUB1;
+            case uriCodeMeta:
+                return "vnd.android.cursor.dir/" + SUB3;
+            case uriCodeNearby:
+                return "vnd.android.cursor.dir/" + SUB4;
+            case uriCodeSearch:
+                return "vnd.android.cursor.dir/" + SUB5;
+            case uriCodeStage:
+                return "vnd.android.cursor.dir/" + SUB6;
 
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
@@ -248,6 +611,15 @@ public class OkProvider extends ContentProvider {
     // and a set of values
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        if (uriMatcher.match(uri) == uriCodeMeta) {
+            // one row per category, merge into it so validators and freshness
+            // can be written independently
+            long cat = values.getAsLong(COLUMN_META_CATEGORY);
+            if (sqlDB.update(TABLE_META, values, SELECTION_META, new String[]{String.valueOf(cat)}) == 0) {
+                sqlDB.insert(TABLE_META, null, values);
+            }
+            return ContentUris.withAppendedId(CONTENT_URI_META, cat);
+        }
 
         // Gets the row id after inserting a map with the keys representing the
         // the column
@@ -255,7 +627,8 @@ public class OkProvider extends ContentProvider {
         // " (id INTEGER PRIMARY KEY AUTOINCREMENT, "ribute is used when you try
         // to insert
         // an empty row
-        long rowID = sqlDB.insert(TABLE_NAME, null, values);
+        ContentValues encoded = encode(values);
+        long rowID = insertShop(encoded);
 
         // Verify a row has been added
         if (rowID > 0) {
@@ -266,28 +639,66 @@ public class OkProvider extends ContentProvider {
             Uri _uri = ContentUris.withAppendedId(CONTENT_URI, rowID);
 
             // getContentResolver provides access to the content model
-            // notifyChange notifies all observers that a row was updated
-            getContext().getContentResolver().notifyChange(_uri, null);
+            // notifyChange notifies all observers that a row was updated;
+            // on its district, which reaches the observers of its category and of CONTENT_URI
+            notifyChange(insertScope(encoded));
 
             // Return the Builder used to manipulate the URI
             return _uri;
         }
-        Toast.makeText(getContext(), "Row Insert Failed", Toast.LENGTH_LONG)
-                .show();
+        // may run on a binder thread, no Toast from here
+        Log.d(LOG_TAG, "insert failed " + uri);
         return null;
     }
 
 
+    // the district of a new row, its category when that is not known
+    private static Uri insertScope(ContentValues encoded) {
+        Long cat = encoded.getAsLong(COLUMN_CATEGORY_ID);
+        Long district = encoded.getAsLong(COLUMN_DISTRICT_ID);
+        if (cat == null) {
+            return CONTENT_URI;
+        }
+        return district == null ? categoryUri(cat) : districtUri(cat, district);
+    }
+
+    // the row and its ok_fts tokens, in one transaction; values encoded
+    private long insertShop(ContentValues values) {
+        Batch current = batch.get();
+        if (current != null) {
+            long rowID = current.load(this, values);
+            if (rowID >= 0) {
+                return rowID;
+            }
+        }
+        sqlDB.beginTransactionNonExclusive();
+        try {
+            long rowID = sqlDB.insert(TABLE_NAME, null, values);
+            if (rowID > 0) {
+                SearchIndex.index(sqlDB, rowID, values.getAsString(COLUMN_NAME),
+                        values.getAsString(COLUMN_DISPLAY_ADDR));
+            }
+            sqlDB.setTransactionSuccessful();
+            return rowID;
+        } finally {
+            sqlDB.endTransaction();
+        }
+    }
+
+    // one ContentValues, one encode() and one SQL build per row, BulkLoader is the fast path
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
 //        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 //        final int match = sUriMatcher.match(uri);
-        sqlDB.beginTransaction();
+        if (uriMatcher.match(uri) == uriCodeStage) {
+            return stage(values);
+        }
+        sqlDB.beginTransactionNonExclusive();
         int returnCount = 0;
         try {
             for (ContentValues value : values) {
                 //  normalizeDate(value);
-                long _id = sqlDB.insert(TABLE_NAME, null, value);
+                long _id = insertShop(encode(value));
                 if (_id != -1) {
                     returnCount++;
                 }
@@ -296,7 +707,7 @@ public class OkProvider extends ContentProvider {
         } finally {
             sqlDB.endTransaction();
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnCount;
 
     }
@@ -307,17 +718,30 @@ public class OkProvider extends ContentProvider {
         int rowsDeleted = 0;
 
         // Used to match uris with Content Providers
-        switch (uriMatcher.match(uri)) {
+        int match = uriMatcher.match(uri);
+        switch (match) {
+            case uriCodeCategory:
+            case uriCodeDistrict:
+                selection = scopedSelection(match, selection);
+                selectionArgs = scopedArgs(uri, selectionArgs);
+                // fall through
             case uriCode:
+                statementStats.record("DELETE FROM " + TABLE_NAME + " WHERE " + selection);
                 rowsDeleted = sqlDB.delete(TABLE_NAME, selection, selectionArgs);
                 break;
+            case uriCodeMeta:
+                return sqlDB.delete(TABLE_META, selection, selectionArgs);
+            case uriCodeStage:
+                return sqlDB.delete(TABLE_STAGE, SELECTION_CATEGORY, new String[]{uri.getLastPathSegment()});
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
         // getContentResolver provides access to the content model
         // notifyChange notifies all observers that a row was updated
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (rowsDeleted > 0) {
+            notifyChange(scope(uri, match, null));
+        }
         return rowsDeleted;
     }
 
@@ -327,42 +751,599 @@ public class OkProvider extends ContentProvider {
     public int update(Uri uri, ContentValues values, String selection,
                       String[] selectionArgs) {
         int rowsUpdated = 0;
+        Uri changed = CONTENT_URI;
 
         // Used to match uris with Content Providers
-        switch (uriMatcher.match(uri)) {
+        int match = uriMatcher.match(uri);
+        switch (match) {
+            case uriCodeCategory:
+            case uriCodeDistrict:
+                selection = scopedSelection(match, selection);
+                selectionArgs = scopedArgs(uri, selectionArgs);
+                // fall through
             case uriCode:
+                statementStats.record("UPDATE " + TABLE_NAME + " " + values.keySet() + " WHERE " + selection);
+                ContentValues encoded = encode(values);
 
                 // Update the row or rows of data
-                rowsUpdated = sqlDB.update(TABLE_NAME, values, selection,
-                        selectionArgs);
+                if (values.containsKey(COLUMN_NAME) || values.containsKey(COLUMN_DISPLAY_ADDR)) {
+                    rowsUpdated = updateIndexed(encoded, selection, selectionArgs);
+                } else {
+                    rowsUpdated = sqlDB.update(TABLE_NAME, encoded, selection,
+                            selectionArgs);
+                }
+                if (match != uriCode) {
+                    changed = updateScope(uri, match, encoded);
+                }
                 break;
+            case uriCodeMeta:
+                return sqlDB.update(TABLE_META, values, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
         // getContentResolver provides access to the content model
         // notifyChange notifies all observers that a row was updated
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (rowsUpdated > 0) {
+            notifyChange(changed);
+        }
         return rowsUpdated;
     }
 
+    // uri, unless values move the rows out of it: to another district, its
+    // category; to another category, CONTENT_URI
+    private static Uri updateScope(Uri uri, int match, ContentValues encoded) {
+        List<String> segments = uri.getPathSegments();
+        long cat = Long.parseLong(segments.get(2));
+        Long newCat = encoded.getAsLong(COLUMN_CATEGORY_ID);
+        if (newCat != null && newCat != cat) {
+            return CONTENT_URI;
+        }
+        Long newDistrict = encoded.getAsLong(COLUMN_DISTRICT_ID);
+        if (match == uriCodeDistrict && newDistrict != null && newDistrict != Long.parseLong(segments.get(4))) {
+            return categoryUri(cat);
+        }
+        return uri.buildUpon().clearQuery().build();
+    }
+
+    // every write of ok ends here, the cached results go before the observers query again;
+    // in applyBatch it waits for the commit
+    void notifyChange(Uri uri) {
+        Batch current = batch.get();
+        if (current != null) {
+            current.changed.add(uri);
+            return;
+        }
+        resultCache.invalidate(uri);
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Drops the cached results under uri without notifying, for rows a BulkLoader
+     * committed before its finish().
+     */
+    void invalidateResults(Uri uri) {
+        resultCache.invalidate(uri);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_PUBLISH.equals(method)) {
+            Bundle result = new Bundle();
+            boolean publishAnyway = extras != null && extras.getBoolean(KEY_PUBLISH_ANYWAY);
+            result.putInt(KEY_CHANGED, publish(Long.parseLong(arg), publishAnyway));
+            return result;
+        }
+        if (!METHOD_REPORT.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        Bundle report = new Bundle();
+        report.putString(KEY_STATEMENTS, statementStats.report());
+        report.putString(KEY_RESULTS, resultCache.report());
+        return report;
+    }
+
+    // one batch of a download into ok_stage, one BulkLoader chunk; no reader sees it
+    private int stage(ContentValues[] values) {
+        BulkLoader loader = BulkLoader.staging(sqlDB, values.length);
+        try {
+            for (ContentValues value : values) {
+                if (!fill(loader.row(), encode(value))) {
+                    throw new IllegalArgumentException("not a whole shop: " + value);
+                }
+                loader.add();
+            }
+        } catch (RuntimeException e) {
+            loader.cancel();
+            throw e;
+        }
+        return loader.finish();
+    }
+
+    /**
+     * Replaces the shops of category cat with its stage, in one transaction.
+     * Shops are matched on row_key: the rows missing from the stage are deleted,
+     * the rows whose content_hash changed, or that got a geohash, are written
+     * again under their _id, the new ones are inserted, and ok_fts follows.
+     * <p/>
+     * A stage with fewer than JsonIngest.MIN_KEPT_PERCENT of the rows of cat is
+     * dropped instead, unless publishAnyway: the check is made here, in the
+     * transaction of the swap, on what is really staged. Either way the stage of cat is empty
+     * afterwards. Returns the number of rows inserted, updated or deleted, or
+     * JsonIngest.REJECTED when the old rows were kept.
+     */
+    int publish(long cat, boolean publishAnyway) {
+        String[] args = {String.valueOf(cat)};
+        int changed;
+        sqlDB.beginTransactionNonExclusive();
+        try {
+            long staged = DatabaseUtils.queryNumEntries(sqlDB, TABLE_STAGE, SELECTION_CATEGORY, args);
+            long before = DatabaseUtils.queryNumEntries(sqlDB, TABLE_NAME, SELECTION_CATEGORY, args);
+            if (staged == 0) {
+                changed = 0;
+            } else if (!publishAnyway && staged * 100 < before * JsonIngest.MIN_KEPT_PERCENT) {
+                // more likely a body cut short upstream than half the shops closing at once
+                Log.d(LOG_TAG, "cat=" + cat + " rejected, rows=" + staged + " before=" + before);
+                changed = JsonIngest.REJECTED;
+            } else {
+                changed = swap(cat, args, staged);
+            }
+            sqlDB.delete(TABLE_STAGE, SELECTION_CATEGORY, args);
+            sqlDB.setTransactionSuccessful();
+        } finally {
+            sqlDB.endTransaction();
+        }
+        if (changed > 0) {
+            notifyChange(categoryUri(cat));
+        }
+        return changed;
+    }
+
+    // the body of publish(), in its transaction
+    private int swap(long cat, String[] args, long staged) {
+        sqlDB.execSQL("UPDATE " + TABLE_STAGE + " SET " + COLUMN_TARGET + "=(SELECT " + COLUMN_ID
+                + " FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + "." + COLUMN_CATEGORY_ID + "="
+                + TABLE_STAGE + "." + COLUMN_CATEGORY_ID + " AND " + TABLE_NAME + "." + COLUMN_ROW_KEY + "="
+                + TABLE_STAGE + "." + COLUMN_ROW_KEY + ") WHERE " + SELECTION_CATEGORY, args);
+        String targets = "(SELECT " + COLUMN_TARGET + " FROM " + TABLE_STAGE + " WHERE " + SELECTION_CATEGORY
+                + " AND " + COLUMN_TARGET + " IS NOT NULL)";
+        int deleted = sqlDB.delete(TABLE_NAME, SELECTION_CATEGORY + " AND " + COLUMN_ID + " NOT IN " + targets,
+                new String[]{args[0], args[0]});
+        // coordinates are not in the hash, rows from the seed get them here
+        int unchanged = sqlDB.delete(TABLE_STAGE, SELECTION_CATEGORY + " AND EXISTS (SELECT 1 FROM " + TABLE_NAME
+                + " WHERE " + TABLE_NAME + "." + COLUMN_ID + "=" + TABLE_STAGE + "." + COLUMN_TARGET
+                + " AND " + TABLE_NAME + "." + COLUMN_CONTENT_HASH + "=" + TABLE_STAGE + "." + COLUMN_CONTENT_HASH
+                + " AND (" + TABLE_NAME + "." + COLUMN_GEOHASH + " IS NOT NULL OR "
+                + TABLE_STAGE + "." + COLUMN_GEOHASH + " IS NULL))", args);
+        // a changed row goes and comes back under its _id, the triggers take its
+        // summary count and ok_fts tokens along
+        int updated = sqlDB.delete(TABLE_NAME, COLUMN_ID + " IN " + targets, args);
+        sqlDB.execSQL("INSERT INTO " + TABLE_NAME + " (" + COLUMN_ID + "," + STAGED_COLUMNS + ") SELECT "
+                + COLUMN_TARGET + "," + STAGED_COLUMNS + " FROM " + TABLE_STAGE + " WHERE " + SELECTION_CATEGORY, args);
+        sqlDB.execSQL("INSERT INTO " + SearchIndex.TABLE + " (docid," + COLUMN_NAME + "," + COLUMN_DISPLAY_ADDR
+                + ") SELECT " + TABLE_NAME + "." + COLUMN_ID + "," + COLUMN_NAME_TOKENS + "," + COLUMN_ADDR_TOKENS
+                + " FROM " + TABLE_STAGE + " JOIN " + TABLE_NAME + " ON " + TABLE_NAME + "." + COLUMN_CATEGORY_ID
+                + "=" + TABLE_STAGE + "." + COLUMN_CATEGORY_ID + " AND " + TABLE_NAME + "." + COLUMN_ROW_KEY
+                + "=" + TABLE_STAGE + "." + COLUMN_ROW_KEY
+                + " WHERE " + TABLE_STAGE + "." + SELECTION_CATEGORY, args);
+        int inserted = (int) staged - unchanged - updated;
+        Log.d(LOG_TAG, "cat=" + cat + " inserted=" + inserted + " updated=" + updated
+                + " deleted=" + deleted + " unchanged=" + unchanged);
+        return inserted + updated + deleted;
+    }
+
+    /**
+     * The state of an applyBatch on its thread: the uris to notify once it
+     * commits, and the compiled insert its inserts share.
+     */
+    private static final class Batch {
+        final LinkedHashSet<Uri> changed = new LinkedHashSet<Uri>();
+        BulkLoader loader;
+
+        // -1 when values is not a whole shop, insertShop takes it then
+        long load(OkProvider provider, ContentValues values) {
+            if (loader == null) {
+                // one chunk, the batch commits it
+                loader = new BulkLoader(provider.sqlDB, null, Integer.MAX_VALUE);
+            }
+            if (!fill(loader.row(), values)) {
+                return -1;
+            }
+            return loader.add();
+        }
+
+        // ends the loader's transaction, before a yield or the commit
+        void flush() {
+            if (loader != null) {
+                loader.finish();
+                loader = null;
+            }
+        }
+    }
+
+    private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>();
+
+    // copies encoded values into row, false when they are not a whole shop
+    private static boolean fill(BulkLoader.Row row, ContentValues values) {
+        Long categoryId = values.getAsLong(COLUMN_CATEGORY_ID);
+        Long districtId = values.getAsLong(COLUMN_DISTRICT_ID);
+        Long contentHash = values.getAsLong(COLUMN_CONTENT_HASH);
+        String name = values.getAsString(COLUMN_NAME);
+        String tel = values.getAsString(COLUMN_TEL);
+        String displayAddr = values.getAsString(COLUMN_DISPLAY_ADDR);
+        String poiAddr = values.getAsString(COLUMN_POI_ADDR);
+        String rowKey = values.getAsString(COLUMN_ROW_KEY);
+        if (categoryId == null || districtId == null || contentHash == null || name == null
+                || tel == null || displayAddr == null || poiAddr == null || rowKey == null) {
+            return false;
+        }
+        row.name = name;
+        row.categoryId = categoryId.intValue();
+        row.tel = tel;
+        row.displayAddr = displayAddr;
+        row.poiAddr = poiAddr;
+        row.districtId = districtId.intValue();
+        row.rowKey = rowKey;
+        row.contentHash = contentHash;
+        Double lat = values.getAsDouble(COLUMN_LAT);
+        Double lng = values.getAsDouble(COLUMN_LNG);
+        row.located = lat != null && lng != null;
+        row.lat = row.located ? lat : 0;
+        row.lng = row.located ? lng : 0;
+        row.geohash = values.getAsString(COLUMN_GEOHASH);
+        return true;
+    }
+
+    /**
+     * Applies operations in one transaction and notifies every changed uri
+     * once, after the commit. Nothing is written if one of them throws.
+     * An operation built withYieldAllowed(true) lets a waiting reader or writer
+     * in before it, and commits what came before it.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (batch.get() != null) {
+            // applyBatch from within an operation, the outer one does the notifying
+            return super.applyBatch(operations);
+        }
+        Batch current = new Batch();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        batch.set(current);
+        sqlDB.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    current.flush();
+                    sqlDB.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            current.flush();
+            sqlDB.setTransactionSuccessful();
+        } finally {
+            if (current.loader != null) {
+                current.loader.cancel();
+            }
+            sqlDB.endTransaction();
+            batch.remove();
+        }
+        for (Uri uri : current.changed) {
+            notifyChange(uri);
+        }
+        return results;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            resultCache.trimTo(0);
+        } else {
+            resultCache.trimTo(ResultCache.MAX_BYTES / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        resultCache.trimTo(0);
+    }
+
+    // the text of the rows changed, their ok_fts tokens too
+    private int updateIndexed(ContentValues values, String selection, String[] selectionArgs) {
+        sqlDB.beginTransactionNonExclusive();
+        try {
+            // by _id, the update may change what selection matches
+            StringBuilder ids = new StringBuilder();
+            Cursor cursor = sqlDB.query(TABLE_NAME, new String[]{COLUMN_ID}, selection, selectionArgs,
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.append(ids.length() == 0 ? "" : ",").append(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            int rowsUpdated = sqlDB.update(TABLE_NAME, values, selection, selectionArgs);
+            if (ids.length() > 0) {
+                SearchIndex.reindex(sqlDB, COLUMN_ID + " IN (" + ids + ")", null);
+            }
+            sqlDB.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            sqlDB.endTransaction();
+        }
+    }
+
+    // name -> code, cached for the provider's lifetime; codes are never deleted
+    private final HashMap<String, Long> categoryCodes = new HashMap<String, Long>();
+    private final HashMap<String, Long> districtCodes = new HashMap<String, Long>();
+
+    // certification_category and district as text, the way JsonIngest writes them,
+    // become their codes; a name not seen before gets a new code
+    private ContentValues encode(ContentValues values) {
+        if (!values.containsKey(COLUMN_CERTIFICATION_CATEGORY) && !values.containsKey(COLUMN_DISTRICT)) {
+            return values;
+        }
+        ContentValues encoded = new ContentValues(values);
+        if (encoded.containsKey(COLUMN_CERTIFICATION_CATEGORY)) {
+            String name = encoded.getAsString(COLUMN_CERTIFICATION_CATEGORY);
+            encoded.remove(COLUMN_CERTIFICATION_CATEGORY);
+            encoded.put(COLUMN_CATEGORY_ID, code(TABLE_CATEGORY, categoryCodes, name));
+        }
+        if (encoded.containsKey(COLUMN_DISTRICT)) {
+            String name = encoded.getAsString(COLUMN_DISTRICT);
+            encoded.remove(COLUMN_DISTRICT);
+            encoded.put(COLUMN_DISTRICT_ID, code(TABLE_DISTRICT, districtCodes, name));
+        }
+        return encoded;
+    }
+
+    private long code(String table, HashMap<String, Long> codes, String name) {
+        synchronized (codes) {
+            Long code = codes.get(name);
+            if (code == null) {
+                Cursor cursor = sqlDB.query(table, new String[]{COLUMN_ID}, COLUMN_DICTIONARY_NAME + "=?",
+                        new String[]{name}, null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        code = cursor.getLong(0);
+                    } else {
+                        ContentValues values = new ContentValues();
+                        values.put(COLUMN_DICTIONARY_NAME, name);
+                        code = sqlDB.insert(table, null, values);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                codes.put(name, code);
+            }
+            return code;
+        }
+    }
+
+    // the codes the app already knows: a category is its index in CATXX,
+    // a district its index in R.array.taipei_district, as DistrictClassifier returns it
+    private static void fillDictionaries(SQLiteDatabase sqlDB, Context context) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < CATXX.length; i++) {
+            values.put(COLUMN_ID, i);
+            values.put(COLUMN_DICTIONARY_NAME, CATXX[i]);
+            sqlDB.insert(TABLE_CATEGORY, null, values);
+        }
+        String[] districts = context.getResources().getStringArray(R.array.taipei_district);
+        for (int i = 0; i < districts.length; i++) {
+            values.put(COLUMN_ID, i);
+            values.put(COLUMN_DICTIONARY_NAME, districts[i]);
+            sqlDB.insert(TABLE_DISTRICT, null, values);
+        }
+    }
+
     // Creates and manages our database
     private static class DatabaseHelper extends SQLiteOpenHelper {
+        private final Context context;
+        private final DatabaseProfile profile;
+        // onUpgrade dropped the rows, see OkProvider.rebuildFromCache
+        boolean recreated;
+
         DatabaseHelper(Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            this.context = context;
+            profile = DatabaseProfile.load(context);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase sqlDB) {
+            Log.d(LOG_TAG, DATABASE_NAME + " profile " + profile);
+            profile.configure(sqlDB);
         }
 
         @Override
         public void onCreate(SQLiteDatabase sqlDB) {
-            sqlDB.execSQL(CREATE_DB_TABLE);
+            for (String sql : CREATE_STATEMENTS) {
+                sqlDB.execSQL(sql);
+            }
+            fillDictionaries(sqlDB, context);
         }
 
-        // Recreates the table when the database needs to be upgraded
+        // Migrates one version at a time, keeping the rows; SQLiteOpenHelper runs it in one transaction
         @Override
         public void onUpgrade(SQLiteDatabase sqlDB, int oldVersion,
                               int newVersion) {
+            if (oldVersion < FIRST_MIGRATED_VERSION) {
+                recreate(sqlDB);
+                return;
+            }
+            for (int version = oldVersion + 1; version <= newVersion; version++) {
+                Log.d(LOG_TAG, "migrating " + DATABASE_NAME + " to version " + version);
+                migrate(sqlDB, version);
+            }
+        }
+
+        private void migrate(SQLiteDatabase sqlDB, int toVersion) {
+            // the SQL is spelled out, later versions may change the constants
+            switch (toVersion) {
+                case 6:
+                    // http validators per category
+                    sqlDB.execSQL("CREATE TABLE meta (category INTEGER PRIMARY KEY, etag TEXT, last_modified TEXT)");
+                    break;
+                case 7:
+                    // what the diff matches on; no content_hash yet, the first refresh writes every row once
+                    sqlDB.execSQL("ALTER TABLE ok ADD COLUMN row_key TEXT NOT NULL DEFAULT ''");
+                    sqlDB.execSQL("ALTER TABLE ok ADD COLUMN content_hash INTEGER NOT NULL DEFAULT 0");
+                    sqlDB.execSQL("UPDATE ok SET row_key=name || '|' || poi_addr");
+                    sqlDB.execSQL("CREATE INDEX ok_row_key ON ok (certification_category,row_key)");
+                    break;
+                case 8:
+                    // freshness per category
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN last_fetched INTEGER NOT NULL DEFAULT 0");
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN failures INTEGER NOT NULL DEFAULT 0");
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN next_attempt INTEGER NOT NULL DEFAULT 0");
+                    break;
+                case 9:
+                    // coordinates, filled in by the next refresh of each category
+                    sqlDB.execSQL("ALTER TABLE ok ADD COLUMN lat REAL");
+                    sqlDB.execSQL("ALTER TABLE ok ADD COLUMN lng REAL");
+                    sqlDB.execSQL("ALTER TABLE ok ADD COLUMN geohash TEXT");
+                    sqlDB.execSQL("CREATE INDEX ok_geohash ON ok (geohash)");
+                    break;
+                case 10:
+                    // full-text search, the tokens of the rows already there made here
+                    sqlDB.execSQL("CREATE VIRTUAL TABLE ok_fts USING fts4(name,display_addr)");
+                    sqlDB.execSQL("CREATE TRIGGER ok_fts_delete AFTER DELETE ON ok BEGIN"
+                            + " DELETE FROM ok_fts WHERE docid=old._id; END");
+                    SearchIndex.reindex(sqlDB, null, null);
+                    break;
+                case 11:
+                    // covering indexes for the list, the spinner and the diff
+                    sqlDB.execSQL("DROP INDEX IF EXISTS ok_row_key");
+                    sqlDB.execSQL("CREATE INDEX ok_row_key ON ok"
+                            + " (certification_category,row_key,content_hash,geohash)");
+                    sqlDB.execSQL("CREATE INDEX ok_category_addr ON ok"
+                            + " (certification_category,display_addr,name,lat,lng)");
+                    sqlDB.execSQL("CREATE INDEX ok_district_addr ON ok"
+                            + " (certification_category,district,display_addr,name,lat,lng)");
+                    break;
+                case 12:
+                    // category and district as codes; rows keep their _id, so ok_fts stays valid
+                    sqlDB.execSQL("CREATE TABLE category (_id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)");
+                    sqlDB.execSQL("CREATE TABLE district (_id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)");
+                    fillDictionaries(sqlDB, context);
+                    sqlDB.execSQL("INSERT OR IGNORE INTO category (name)"
+                            + " SELECT DISTINCT certification_category FROM ok");
+                    sqlDB.execSQL("INSERT OR IGNORE INTO district (name) SELECT DISTINCT district FROM ok");
+                    sqlDB.execSQL("CREATE TABLE ok_v12 (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + " name TEXT NOT NULL, category_id INTEGER NOT NULL, tel TEXT NOT NULL,"
+                            + " display_addr TEXT NOT NULL, poi_addr TEXT NOT NULL, district_id INTEGER NOT NULL,"
+                            + " row_key TEXT NOT NULL, content_hash INTEGER NOT NULL, lat REAL, lng REAL, geohash TEXT)");
+                    sqlDB.execSQL("INSERT INTO ok_v12 SELECT ok._id, ok.name, category._id, tel, display_addr,"
+                            + " poi_addr, district._id, row_key, content_hash, lat, lng, geohash FROM ok"
+                            + " JOIN category ON category.name=ok.certification_category"
+                            + " JOIN district ON district.name=ok.district");
+                    // the indexes and the ok_fts trigger go with the old table
+                    sqlDB.execSQL("DROP TABLE ok");
+                    sqlDB.execSQL("ALTER TABLE ok_v12 RENAME TO ok");
+                    sqlDB.execSQL("CREATE INDEX ok_row_key ON ok"
+                            + " (category_id,row_key,content_hash,geohash,district_id)");
+                    sqlDB.execSQL("CREATE INDEX ok_category_addr ON ok"
+                            + " (category_id,display_addr,name,lat,lng,district_id)");
+                    sqlDB.execSQL("CREATE INDEX ok_district_addr ON ok"
+                            + " (category_id,district_id,display_addr,name,lat,lng)");
+                    sqlDB.execSQL("CREATE INDEX ok_geohash ON ok (geohash)");
+                    sqlDB.execSQL("CREATE TRIGGER ok_fts_delete AFTER DELETE ON ok BEGIN"
+                            + " DELETE FROM ok_fts WHERE docid=old._id; END");
+                    sqlDB.execSQL("CREATE VIEW ok_view AS SELECT ok.*, category.name AS certification_category,"
+                            + " district.name AS district FROM ok"
+                            + " LEFT JOIN category ON category._id=ok.category_id"
+                            + " LEFT JOIN district ON district._id=ok.district_id");
+                    break;
+                case 13:
+                    // the spinner counts kept by triggers instead of a GROUP BY per category view
+                    sqlDB.execSQL("CREATE TABLE summary (category_id INTEGER NOT NULL,"
+                            + " district_id INTEGER NOT NULL, cnt INTEGER NOT NULL,"
+                            + " PRIMARY KEY (category_id,district_id))");
+                    sqlDB.execSQL("INSERT INTO summary SELECT category_id, district_id, COUNT(*) FROM ok"
+                            + " GROUP BY category_id, district_id");
+                    sqlDB.execSQL("CREATE TRIGGER summary_insert AFTER INSERT ON ok BEGIN"
+                            + " INSERT OR IGNORE INTO summary VALUES (new.category_id, new.district_id, 0);"
+                            + " UPDATE summary SET cnt=cnt+1"
+                            + " WHERE category_id=new.category_id AND district_id=new.district_id; END");
+                    sqlDB.execSQL("CREATE TRIGGER summary_delete AFTER DELETE ON ok BEGIN"
+                            + " UPDATE summary SET cnt=cnt-1"
+                            + " WHERE category_id=old.category_id AND district_id=old.district_id;"
+                            + " DELETE FROM summary"
+                            + " WHERE category_id=old.category_id AND district_id=old.district_id AND cnt<=0; END");
+                    sqlDB.execSQL("CREATE TRIGGER summary_update AFTER UPDATE OF category_id, district_id ON ok"
+                            + " WHEN new.category_id<>old.category_id OR new.district_id<>old.district_id BEGIN"
+                            + " UPDATE summary SET cnt=cnt-1"
+                            + " WHERE category_id=old.category_id AND district_id=old.district_id;"
+                            + " DELETE FROM summary"
+                            + " WHERE category_id=old.category_id AND district_id=old.district_id AND cnt<=0;"
+                            + " INSERT OR IGNORE INTO summary VALUES (new.category_id, new.district_id, 0);"
+                            + " UPDATE summary SET cnt=cnt+1"
+                            + " WHERE category_id=new.category_id AND district_id=new.district_id; END");
+                    break;
+                case 14:
+                    // _id right after display_addr, keyset pages come off the indexes in order
+                    sqlDB.execSQL("DROP INDEX IF EXISTS ok_category_addr");
+                    sqlDB.execSQL("DROP INDEX IF EXISTS ok_district_addr");
+                    sqlDB.execSQL("CREATE INDEX ok_category_addr ON ok"
+                            + " (category_id,display_addr,_id,name,lat,lng,district_id)");
+                    sqlDB.execSQL("CREATE INDEX ok_district_addr ON ok"
+                            + " (category_id,district_id,display_addr,_id,name,lat,lng)");
+                    break;
+                case 15:
+                    // bodies JsonIngest rejected, so a real shrink is published in the end
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN rejected_etag TEXT");
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN rejected_last_modified TEXT");
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN rejected_digest INTEGER");
+                    sqlDB.execSQL("ALTER TABLE meta ADD COLUMN rejections INTEGER NOT NULL DEFAULT 0");
+                    break;
+                case 16:
+                    // duplicates two overlapping refreshes may have left, the oldest row stays;
+                    // the triggers take their ok_fts and summary rows along
+                    sqlDB.execSQL("DELETE FROM ok WHERE _id NOT IN"
+                            + " (SELECT MIN(_id) FROM ok GROUP BY category_id,row_key)");
+                    sqlDB.execSQL("CREATE UNIQUE INDEX ok_row_key_unique ON ok (category_id,row_key)");
+                    break;
+                case 17:
+                    // downloads are staged batch by batch, then published in one transaction
+                    sqlDB.execSQL("CREATE TABLE ok_stage (name TEXT NOT NULL, category_id INTEGER NOT NULL,"
+                            + " tel TEXT NOT NULL, display_addr TEXT NOT NULL, poi_addr TEXT NOT NULL,"
+                            + " district_id INTEGER NOT NULL, row_key TEXT NOT NULL, content_hash INTEGER NOT NULL,"
+                            + " lat REAL, lng REAL, geohash TEXT, name_tokens TEXT NOT NULL,"
+                            + " addr_tokens TEXT NOT NULL, target INTEGER, UNIQUE (category_id,row_key))");
+                    break;
+                case 18:
+                    // the row count check is in publish(), rejected bodies are no longer tracked
+                    sqlDB.execSQL("CREATE TABLE meta_v18 (category INTEGER PRIMARY KEY, etag TEXT,"
+                            + " last_modified TEXT, last_fetched INTEGER NOT NULL DEFAULT 0,"
+                            + " failures INTEGER NOT NULL DEFAULT 0, next_attempt INTEGER NOT NULL DEFAULT 0)");
+                    sqlDB.execSQL("INSERT INTO meta_v18 SELECT category, etag, last_modified, last_fetched,"
+                            + " failures, next_attempt FROM meta");
+                    sqlDB.execSQL("DROP TABLE meta");
+                    sqlDB.execSQL("ALTER TABLE meta_v18 RENAME TO meta");
+                    break;
+                default:
+                    throw new IllegalStateException("no migration to version " + toVersion);
+            }
+        }
+
+        // Recreates the tables of a version too old to migrate
+        private void recreate(SQLiteDatabase sqlDB) {
+            // validators go with the rows, otherwise a 304 would leave the new table empty
+            sqlDB.execSQL("DROP VIEW IF EXISTS " + VIEW_NAME);
             sqlDB.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            sqlDB.execSQL("DROP TABLE IF EXISTS " + TABLE_CATEGORY);
+            sqlDB.execSQL("DROP TABLE IF EXISTS " + TABLE_DISTRICT);
+            sqlDB.execSQL("DROP TABLE IF EXISTS " + TABLE_SUMMARY);
+            sqlDB.execSQL("DROP TABLE IF EXISTS " + SearchIndex.TABLE);
+            sqlDB.execSQL("DROP TABLE IF EXISTS " + TABLE_META);
+            sqlDB.execSQL("DROP TABLE IF EXISTS " + TABLE_STAGE);
             onCreate(sqlDB);
+            recreated = true;
         }
     }
 
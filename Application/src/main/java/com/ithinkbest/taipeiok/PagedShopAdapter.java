@@ -0,0 +1,305 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+
+/**
+ * The shops of a category or district for a RecyclerView, PAGE_SIZE rows at a time.
+ * <p/>
+ * Pages are read with OkProvider.queryPage on a background thread, each one
+ * starting after the last row of the page before, so no page costs more than
+ * PAGE_SIZE index entries however deep it is. The pages around the last bound
+ * position, KEEP on either side, are kept and the others dropped; only the last
+ * (display_addr, _id) of every page read so far stays, to start the next one.
+ * A row whose page is not there yet is bound empty and filled in when it arrives.
+ * <p/>
+ * The item count comes from the summary table. Any change to the rows shown,
+ * as notified on their categoryUri or districtUri, starts over. Call close()
+ * when done, it stops the thread and the observer.
+ */
+public class PagedShopAdapter extends RecyclerView.Adapter<PagedShopAdapter.ViewHolder> {
+
+    static String LOG_TAG = "MARK987";
+    static final int PAGE_SIZE = 50;
+    static final int AHEAD = 2; // pages read past the one being bound
+    static final int KEEP = 3;
+    static final long RELOAD_DELAY_MS = 500; // quiet time after a change, an ingest writes per batch
+
+    private static final String[] PROJECTION = {OkProvider.COLUMN_ID, OkProvider.COLUMN_NAME,
+            OkProvider.COLUMN_DISPLAY_ADDR, OkProvider.COLUMN_LAT, OkProvider.COLUMN_LNG};
+
+    /**
+     * Interface for receiving click events from rows, and the pages as they come in.
+     */
+    public interface Listener {
+        void onClick(String displayAddr, boolean located, double lat, double lng);
+
+        void onPageLoaded(int index, int rows);
+    }
+
+    /**
+     * The two lines of a row.
+     */
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        public final TextView mText1;
+        public final TextView mText2;
+
+        public ViewHolder(View v) {
+            super(v);
+            mText1 = (TextView) v.findViewById(android.R.id.text1);
+            mText2 = (TextView) v.findViewById(android.R.id.text2);
+        }
+    }
+
+    // one page, as arrays rather than a cursor so no CursorWindow is held
+    private static class Page {
+        final int size;
+        final long[] ids = new long[PAGE_SIZE];
+        final String[] names = new String[PAGE_SIZE];
+        final String[] addrs = new String[PAGE_SIZE];
+        final boolean[] located = new boolean[PAGE_SIZE];
+        final double[] lats = new double[PAGE_SIZE];
+        final double[] lngs = new double[PAGE_SIZE];
+
+        Page(Cursor cursor) {
+            int i = 0;
+            while (i < PAGE_SIZE && cursor.moveToNext()) {
+                ids[i] = cursor.getLong(0);
+                names[i] = cursor.getString(1);
+                addrs[i] = cursor.getString(2);
+                located[i] = !cursor.isNull(3) && !cursor.isNull(4);
+                lats[i] = cursor.getDouble(3);
+                lngs[i] = cursor.getDouble(4);
+                i++;
+            }
+            size = i;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Listener listener;
+    private final HandlerThread thread = new HandlerThread("shop-pages");
+    private final Handler background;
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    private final SparseArray<Page> pages = new SparseArray<Page>();
+    // the last display_addr and _id of page i, at i
+    private final ArrayList<String> lastAddrs = new ArrayList<String>();
+    private long[] lastIds = new long[64];
+    private int cat;
+    private long district = -1;
+    private int count;
+    private int generation;
+    private int wanted;
+    private int loading = -1;
+
+    public PagedShopAdapter(Context context, Listener listener) {
+        resolver = context.getContentResolver();
+        this.listener = listener;
+        thread.start();
+        background = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Shows category cat, all of it when district is -1.
+     */
+    public void show(int cat, long district) {
+        this.cat = cat;
+        this.district = district;
+        resolver.unregisterContentObserver(observer);
+        resolver.registerContentObserver(district < 0 ? OkProvider.categoryUri(cat)
+                : OkProvider.districtUri(cat, district), true, observer);
+        reset();
+    }
+
+    public void close() {
+        generation++;
+        main.removeCallbacks(reload);
+        resolver.unregisterContentObserver(observer);
+        thread.quit();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext())
+                .inflate(android.R.layout.simple_list_item_2, parent, false);
+        return new ViewHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        final int index = position / PAGE_SIZE;
+        final int row = position % PAGE_SIZE;
+        wanted = index;
+        pump();
+        final Page page = pages.get(index);
+        if (page == null || row >= page.size) {
+            holder.mText1.setText("");
+            holder.mText2.setText("");
+            holder.itemView.setOnClickListener(null);
+            return;
+        }
+        holder.mText1.setText(page.names[row]);
+        holder.mText2.setText(page.addrs[row]);
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                listener.onClick(page.addrs[row], page.located[row], page.lats[row], page.lngs[row]);
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    private void reset() {
+        generation++;
+        pages.clear();
+        lastAddrs.clear();
+        loading = -1;
+        wanted = 0;
+        count = 0;
+        notifyDataSetChanged();
+        final int gen = generation;
+        final int cat = this.cat;
+        final long district = this.district;
+        background.post(new Runnable() {
+            @Override
+            public void run() {
+                final int total = countRows(cat, district);
+                main.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen == generation) {
+                            count = total;
+                            notifyDataSetChanged();
+                            pump();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // the next page to read: the wanted one and AHEAD after it, walking there page by page
+    private void pump() {
+        if (loading >= 0 || count == 0) {
+            return;
+        }
+        int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int index = wanted; index <= wanted + AHEAD && index < pageCount; index++) {
+            if (pages.get(index) == null) {
+                // a page can only start where the one before ended
+                load(Math.min(index, lastAddrs.size()));
+                return;
+            }
+        }
+    }
+
+    private void load(final int index) {
+        loading = index;
+        final int gen = generation;
+        final int cat = this.cat;
+        final long district = this.district;
+        final String afterAddr = index == 0 ? null : lastAddrs.get(index - 1);
+        final long afterId = index == 0 ? 0 : lastIds[index - 1];
+        background.post(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = OkProvider.queryPage(resolver, cat, district, afterAddr, afterId, PAGE_SIZE,
+                        PROJECTION);
+                final Page page;
+                try {
+                    page = new Page(cursor);
+                } finally {
+                    cursor.close();
+                }
+                main.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen == generation) {
+                            loaded(index, page);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void loaded(int index, Page page) {
+        loading = -1;
+        listener.onPageLoaded(index, page.size);
+        if (index == lastAddrs.size() && page.size > 0) {
+            lastAddrs.add(page.addrs[page.size - 1]);
+            if (index == lastIds.length) {
+                long[] grown = new long[index * 2];
+                System.arraycopy(lastIds, 0, grown, 0, index);
+                lastIds = grown;
+            }
+            lastIds[index] = page.ids[page.size - 1];
+        }
+        if (Math.abs(index - wanted) <= KEEP) {
+            pages.put(index, page);
+            notifyItemRangeChanged(index * PAGE_SIZE, PAGE_SIZE);
+        }
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            if (Math.abs(pages.keyAt(i) - wanted) > KEEP) {
+                pages.removeAt(i);
+            }
+        }
+        if (page.size < PAGE_SIZE && index < (count - 1) / PAGE_SIZE) {
+            // rows went away after the count, the next reload fixes it
+            Log.d(LOG_TAG, "page " + index + " short, rows=" + page.size);
+            return;
+        }
+        pump();
+    }
+
+    private int countRows(int cat, long district) {
+        Cursor cursor = OkProvider.querySummary(resolver, cat);
+        int total = 0;
+        try {
+            int id = cursor.getColumnIndexOrThrow(OkProvider.COLUMN_ID);
+            int cnt = cursor.getColumnIndexOrThrow("CNT");
+            while (cursor.moveToNext()) {
+                if (district < 0 || cursor.getLong(id) == district) {
+                    total += cursor.getInt(cnt);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return total;
+    }
+
+    private final Runnable reload = new Runnable() {
+        @Override
+        public void run() {
+            reset();
+        }
+    };
+
+    private final ContentObserver observer = new ContentObserver(main) {
+        @Override
+        public void onChange(boolean selfChange) {
+            main.removeCallbacks(reload);
+            main.postDelayed(reload, RELOAD_DELAY_MS);
+        }
+    };
+}
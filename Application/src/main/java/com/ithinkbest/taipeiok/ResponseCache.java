@@ -0,0 +1,272 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Raw JSON bodies of OkProvider.JSNXX, gzipped under cacheDir/responses.
+ * <p/>
+ * One entry per category, named cat-validator.json.gz where validator is a hash
+ * of the ETag / Last-Modified it came with. The body is copied to disk while the
+ * parser reads it and only kept once it was parsed to the end. The least recently
+ * used entries go first once the directory is over MAX_BYTES.
+ * Lets a category be parsed again without network, see FetchEngine.rebuildFromCache().
+ */
+public final class ResponseCache {
+
+    static String LOG_TAG = "MARK987";
+    static final String DIR_NAME = "responses";
+    static final long MAX_BYTES = 4L * 1024 * 1024;
+    private static final String SUFFIX = ".json.gz";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static ResponseCache sInstance;
+
+    private final File dir;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static synchronized ResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResponseCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+        }
+        return sInstance;
+    }
+
+    private ResponseCache(File dir) {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.d(LOG_TAG, "cannot create " + dir);
+        }
+        // left over from a process that died while downloading
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * The cached body of cat, inflated, or null. Counts as a hit or a miss.
+     */
+    public InputStream open(int cat) throws IOException {
+        File entry = find(cat);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        // lastModified is the LRU clock
+        entry.setLastModified(System.currentTimeMillis());
+        return new GZIPInputStream(new BufferedInputStream(new FileInputStream(entry)));
+    }
+
+    public boolean contains(int cat) {
+        return find(cat) != null;
+    }
+
+    /**
+     * Copies everything read from content to a temporary entry of cat.
+     * Call commit() on the result once the body was parsed to the end,
+     * abort() otherwise.
+     */
+    public Pending begin(int cat, HttpResponse response, InputStream content) throws IOException {
+        String name = cat + "-" + validatorKey(response) + SUFFIX;
+        File tmp = new File(dir, name + TMP_SUFFIX);
+        OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        return new Pending(cat, new File(dir, name), tmp, content, out);
+    }
+
+    public synchronized void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        long ratio = h + m == 0 ? 0 : 100 * h / (h + m);
+        return "cache hits=" + h + " misses=" + m + " hitRatio=" + ratio + "% bytes=" + size();
+    }
+
+    private synchronized File find(int cat) {
+        File[] files = entries();
+        String prefix = cat + "-";
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void put(int cat, File tmp, File entry) {
+        String prefix = cat + "-";
+        for (File file : entries()) {
+            if (file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+        if (!tmp.renameTo(entry)) {
+            tmp.delete();
+            return;
+        }
+        trim();
+    }
+
+    // drops the least recently used entries until the directory fits MAX_BYTES
+    private void trim() {
+        File[] files = entries();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (int i = 0; i < files.length && total > MAX_BYTES; i++) {
+            total -= files[i].length();
+            Log.d(LOG_TAG, "cache evict " + files[i].getName());
+            files[i].delete();
+        }
+    }
+
+    private synchronized long size() {
+        long total = 0;
+        for (File file : entries()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    private File[] entries() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int cnt = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[cnt++] = file;
+            }
+        }
+        return Arrays.copyOf(files, cnt);
+    }
+
+    private static String validatorKey(HttpResponse response) {
+        Header etag = response.getFirstHeader(ValidatorStore.HEADER_ETAG);
+        Header lastModified = response.getFirstHeader(ValidatorStore.HEADER_LAST_MODIFIED);
+        String validator = (etag == null ? "" : etag.getValue()) + "|"
+                + (lastModified == null ? "" : lastModified.getValue());
+        return Integer.toHexString(validator.hashCode());
+    }
+
+    /**
+     * A body on its way to the cache. Read it through getInputStream().
+     */
+    public class Pending {
+        private final int cat;
+        private final File entry;
+        private final File tmp;
+        private final InputStream in;
+        private final OutputStream out;
+        private boolean done;
+
+        Pending(int cat, File entry, File tmp, InputStream content, final OutputStream out) {
+            this.cat = cat;
+            this.entry = entry;
+            this.tmp = tmp;
+            this.out = out;
+            in = new FilterInputStream(content) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        out.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int n = super.read(buffer, offset, count);
+                    if (n > 0) {
+                        out.write(buffer, offset, n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        /**
+         * Keeps what was read as the entry of cat, replacing the old one.
+         */
+        public void commit() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+                put(cat, tmp, entry);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "IOException " + e.toString());
+                tmp.delete();
+            }
+        }
+
+        public void abort() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "IOException " + e.toString());
+            }
+            tmp.delete();
+        }
+    }
+}
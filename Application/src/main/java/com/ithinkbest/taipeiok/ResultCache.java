@@ -0,0 +1,266 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of OkProvider.query kept in memory, so going back to a category
+ * does not run its queries again.
+ * <p/>
+ * Keyed on uri, projection, selection, args and sort order. A result is copied
+ * into an immutable Snapshot and every hit gets its own cursor over it. Entries
+ * are dropped least recently used first once they add up to more than MAX_BYTES,
+ * as estimated by Snapshot.bytes.
+ * <p/>
+ * Every entry has the URI its cursor is notified on. invalidate(uri) drops the
+ * entries that a notifyChange(uri) would reach, and is called right before it.
+ * A result read while a write was going on is not kept, see generation.
+ */
+final class ResultCache {
+
+    static final int MAX_BYTES = 512 * 1024;
+    static final int MAX_ROWS = 1000; // a bigger result goes straight through
+
+    /**
+     * One result, read once and never changed.
+     */
+    static final class Snapshot {
+        final Uri notifyUri;
+        final String[] columns;
+        final Object[] cells; // row by row: null, Long, Double, String or byte[]
+        final int rows;
+        final int bytes;
+
+        Snapshot(Cursor cursor, Uri notifyUri) {
+            this.notifyUri = notifyUri;
+            columns = cursor.getColumnNames();
+            rows = cursor.getCount();
+            cells = new Object[rows * columns.length];
+            int size = 64 + 16 * cells.length;
+            int i = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int c = 0; c < columns.length; c++, i++) {
+                    switch (cursor.getType(c)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            cells[i] = cursor.getLong(c);
+                            size += 16;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            cells[i] = cursor.getDouble(c);
+                            size += 16;
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String text = cursor.getString(c);
+                            cells[i] = text;
+                            size += 40 + 2 * text.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(c);
+                            cells[i] = blob;
+                            size += 16 + blob.length;
+                            break;
+                        default:
+                            cells[i] = null;
+                    }
+                }
+            }
+            bytes = size;
+        }
+
+        Cursor cursor() {
+            return new SnapshotCursor(this);
+        }
+    }
+
+    // read only, all cursors of a snapshot share its cells
+    private static final class SnapshotCursor extends AbstractCursor {
+        private final Snapshot snapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private Object cell(int column) {
+            return snapshot.cells[mPos * snapshot.columns.length + column];
+        }
+
+        @Override
+        public int getCount() {
+            return snapshot.rows;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return snapshot.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = cell(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = cell(column);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return value == null ? 0 : Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = cell(column);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return value == null ? 0 : Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = cell(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = cell(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return cell(column) == null;
+        }
+    }
+
+    private final LinkedHashMap<String, Snapshot> entries = new LinkedHashMap<String, Snapshot>(16, 0.75f, true);
+    private int bytes;
+    // bumped by every invalidate(), a result read across one is not put
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    static String key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        key.append('\u0000');
+        if (projection != null) {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        }
+        key.append('\u0000').append(selection).append('\u0000');
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                key.append(arg.length()).append(':').append(arg);
+            }
+        }
+        return key.append('\u0000').append(sortOrder).toString();
+    }
+
+    synchronized Snapshot get(String key) {
+        Snapshot snapshot = entries.get(key);
+        if (snapshot != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return snapshot;
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Keeps snapshot unless an invalidate() came after generation was read.
+     */
+    synchronized void put(String key, Snapshot snapshot, long generation) {
+        if (generation != this.generation || snapshot.bytes > MAX_BYTES / 4) {
+            return;
+        }
+        Snapshot old = entries.put(key, snapshot);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += snapshot.bytes;
+        trimTo(MAX_BYTES);
+    }
+
+    /**
+     * Drops what a notifyChange(uri) reaches: the entries notified on uri,
+     * on one of its ancestors or on one of its descendants.
+     */
+    synchronized void invalidate(Uri uri) {
+        generation++;
+        String changed = uri.buildUpon().clearQuery().build().toString();
+        Iterator<Snapshot> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Snapshot snapshot = it.next();
+            String scope = snapshot.notifyUri.toString();
+            if (within(changed, scope) || within(scope, changed)) {
+                bytes -= snapshot.bytes;
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private static boolean within(String uri, String ancestor) {
+        return uri.startsWith(ancestor)
+                && (uri.length() == ancestor.length() || uri.charAt(ancestor.length()) == '/');
+    }
+
+    /**
+     * Drops least recently used entries until at most max bytes are left.
+     */
+    synchronized void trimTo(int max) {
+        Iterator<Map.Entry<String, Snapshot>> it = entries.entrySet().iterator();
+        while (bytes > max && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    synchronized String report() {
+        long total = hits + misses;
+        return "result cache entries=" + entries.size() + " bytes=" + bytes + "/" + MAX_BYTES
+                + " hits=" + hits + " misses=" + misses + " hitRate=" + (total == 0 ? 0 : hits * 100 / total)
+                + "% evictions=" + evictions + " invalidations=" + invalidations;
+    }
+}
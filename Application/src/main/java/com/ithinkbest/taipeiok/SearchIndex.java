@@ -0,0 +1,57 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The ok_fts table: name and display_addr of every shop as CJK bigrams, docid = ok._id.
+ * <p/>
+ * The FTS simple tokenizer keeps a run of Chinese as one token, so 碧瑤飯店 is written
+ * as "碧瑤 瑤飯 飯店 店": every bigram of a run and the last char on its own. A typed
+ * string is cut the same way into one phrase, "碧瑤 瑤飯", which finds it anywhere
+ * in a name or address. A last single char or ASCII word is a prefix, 碧* or tai*,
+ * for search as you type. ASCII words are kept whole.
+ * <p/>
+ * Rows are indexed by OkProvider on insert and update, a trigger on ok deletes them.
+ * The tokens are made by SearchTokens, which buildSeedDatabase runs as well.
+ */
+public final class SearchIndex {
+
+    static final String TABLE = OkSchema.TABLE_FTS;
+
+    private SearchIndex() {
+    }
+
+    /**
+     * Writes the tokens of one shop, replacing what was there for id.
+     */
+    static void index(SQLiteDatabase db, long id, String name, String displayAddr) {
+        db.delete(TABLE, "docid=?", new String[]{String.valueOf(id)});
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE + " (docid,"
+                + OkProvider.COLUMN_NAME + "," + OkProvider.COLUMN_DISPLAY_ADDR + ") VALUES (?,?,?)");
+        try {
+            insert.bindLong(1, id);
+            insert.bindString(2, SearchTokens.tokens(name));
+            insert.bindString(3, SearchTokens.tokens(displayAddr));
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Indexes the shops matching selection again, e.g. after their text changed.
+     */
+    static void reindex(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query("ok", new String[]{OkProvider.COLUMN_ID, OkProvider.COLUMN_NAME,
+                OkProvider.COLUMN_DISPLAY_ADDR}, selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                index(db, cursor.getLong(0), cursor.getString(1), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
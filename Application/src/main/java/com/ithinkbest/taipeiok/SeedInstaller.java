@@ -0,0 +1,106 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Installs assets/taipei_seed.db, written at build time by the buildSeedDatabase
+ * task, as taipei.db when there is no database yet. The first refresh then only
+ * writes what changed since the fixtures.
+ * <p/>
+ * The asset is stored uncompressed (aaptOptions noCompress 'db'), so it is copied
+ * through a memory map of the APK; a compressed asset falls back to a streamed copy.
+ */
+public class SeedInstaller {
+
+    static String LOG_TAG = "MARK987";
+    static final String SEED_ASSET = "taipei_seed.db";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Copies the seed to the path of databaseName unless it is already there
+     * or R.bool.install_seed is false.
+     * Call it before the SQLiteOpenHelper of databaseName opens it.
+     * Returns true if the seed was installed.
+     */
+    public static boolean installIfMissing(Context context, String databaseName) {
+        File target = context.getDatabasePath(databaseName);
+        if (!context.getResources().getBoolean(R.bool.install_seed) || target.exists()) {
+            return false;
+        }
+        long start = SystemClock.elapsedRealtime();
+        File tmp = new File(target.getPath() + ".seed");
+        boolean mapped = false;
+        try {
+            target.getParentFile().mkdirs();
+            try {
+                copyMapped(context, tmp);
+                mapped = true;
+            } catch (FileNotFoundException e) {
+                // openFd() cannot open a compressed asset
+                copyStreamed(context, tmp);
+            }
+            if (!tmp.renameTo(target)) {
+                throw new IOException("cannot rename " + tmp + " to " + target);
+            }
+            Log.d(LOG_TAG, "seed installed, bytes=" + target.length() + " mapped=" + mapped
+                    + " ms=" + (SystemClock.elapsedRealtime() - start));
+            return true;
+        } catch (IOException e) {
+            // no seed, DatabaseHelper.onCreate makes an empty database
+            Log.d(LOG_TAG, "IOException " + e.toString());
+            tmp.delete();
+            return false;
+        }
+    }
+
+    private static void copyMapped(Context context, File tmp) throws IOException {
+        AssetFileDescriptor fd = context.getAssets().openFd(SEED_ASSET);
+        try {
+            FileChannel in = new FileInputStream(fd.getFileDescriptor()).getChannel();
+            FileChannel out = new FileOutputStream(tmp).getChannel();
+            try {
+                MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            } finally {
+                out.close();
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    private static void copyStreamed(Context context, File tmp) throws IOException {
+        InputStream in = context.getAssets().open(SEED_ASSET);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Nearest-shop and radius queries over the geohash index of a table with
+ * lat, lng and geohash columns.
+ * <p/>
+ * A query reads the geohash cell of the point and its 8 neighbours, one index
+ * range each, and sorts them by distance_sq (square metres, equirectangular).
+ * kNN starts with small cells and takes bigger ones until the k-th shop is closer
+ * than the cell size, which makes the answer exact; a shop farther away than that
+ * would have to be in one of the 9 cells.
+ */
+public final class SpatialQuery {
+
+    static final int FIRST_PRECISION = 7; // cells of about 150 m
+    static final int LAST_PRECISION = 3;  // about 150 km, more than all of Taipei
+
+    private SpatialQuery() {
+    }
+
+    /**
+     * The k shops nearest to lat/lng, closest first, with a distance_sq column.
+     * selection may narrow them down further, e.g. to one category.
+     * Throws IllegalArgumentException for k < 1 or a point that is not on the map.
+     */
+    public static Cursor nearest(SQLiteDatabase db, String table, String[] projection,
+                                 String selection, String[] selectionArgs,
+                                 double lat, double lng, int k) {
+        checkPoint(lat, lng);
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        for (int precision = FIRST_PRECISION; precision >= LAST_PRECISION; precision--) {
+            Cursor cursor = query(db, table, projection, selection, selectionArgs, lat, lng, precision, -1, k);
+            if (cursor.getCount() == k) {
+                double cell = GeoHash.cellMinMeters(precision, lat);
+                cursor.moveToLast();
+                double farthest = cursor.getDouble(cursor.getColumnIndexOrThrow(OkProvider.COLUMN_DISTANCE_SQ));
+                cursor.moveToPosition(-1);
+                if (farthest <= cell * cell) {
+                    return cursor;
+                }
+            }
+            if (precision == LAST_PRECISION) {
+                return cursor; // fewer than k shops, or all of them
+            }
+            cursor.close();
+        }
+        throw new IllegalStateException("no precision");
+    }
+
+    /**
+     * Every shop within radiusMeters of lat/lng, closest first.
+     * Throws IllegalArgumentException for a negative radius or a point that is not on the map.
+     */
+    public static Cursor within(SQLiteDatabase db, String table, String[] projection,
+                                String selection, String[] selectionArgs,
+                                double lat, double lng, double radiusMeters) {
+        checkPoint(lat, lng);
+        // NaN fails the comparison too
+        if (!(radiusMeters >= 0) || Double.isInfinite(radiusMeters)) {
+            throw new IllegalArgumentException("bad radius: " + radiusMeters);
+        }
+        int precision = FIRST_PRECISION;
+        while (precision > LAST_PRECISION && GeoHash.cellMinMeters(precision, lat) < radiusMeters) {
+            precision--;
+        }
+        return query(db, table, projection, selection, selectionArgs, lat, lng, precision, radiusMeters, -1);
+    }
+
+    private static void checkPoint(double lat, double lng) {
+        if (!(lat >= -90 && lat <= 90) || !(lng >= -180 && lng <= 180)) {
+            throw new IllegalArgumentException("bad point: " + lat + "," + lng);
+        }
+    }
+
+    private static Cursor query(SQLiteDatabase db, String table, String[] projection,
+                                String selection, String[] selectionArgs,
+                                double lat, double lng, int precision, double radiusMeters, int limit) {
+        double metersPerLat = GeoHash.METERS_PER_DEGREE;
+        double metersPerLng = GeoHash.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        double dLat = GeoHash.cellHeightDegrees(precision);
+        double dLng = GeoHash.cellWidthDegrees(precision);
+        LinkedHashSet<String> cells = new LinkedHashSet<String>();
+        for (int y = -1; y <= 1; y++) {
+            for (int x = -1; x <= 1; x++) {
+                cells.add(GeoHash.encode(lat + y * dLat, lng + x * dLng, precision));
+            }
+        }
+
+        ArrayList<String> args = new ArrayList<String>();
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (projection == null) {
+            sql.append("*");
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(projection[i]);
+            }
+        }
+        String dy = "((" + OkProvider.COLUMN_LAT + "-?)*?)";
+        String dx = "((" + OkProvider.COLUMN_LNG + "-?)*?)";
+        sql.append(",").append(dy).append("*").append(dy).append("+").append(dx).append("*").append(dx)
+                .append(" AS ").append(OkProvider.COLUMN_DISTANCE_SQ)
+                .append(" FROM ").append(table).append(" WHERE (");
+        for (int i = 0; i < 2; i++) {
+            args.add(Double.toString(lat));
+            args.add(Double.toString(metersPerLat));
+        }
+        for (int i = 0; i < 2; i++) {
+            args.add(Double.toString(lng));
+            args.add(Double.toString(metersPerLng));
+        }
+        boolean first = true;
+        for (String cell : cells) {
+            sql.append(first ? "" : " OR ").append("(").append(OkProvider.COLUMN_GEOHASH).append(">=? AND ")
+                    .append(OkProvider.COLUMN_GEOHASH).append("<?)");
+            args.add(cell);
+            args.add(cell + "{"); // '{' sorts right after 'z'
+            first = false;
+        }
+        sql.append(")");
+        if (selection != null && selection.length() > 0) {
+            sql.append(" AND (").append(selection).append(")");
+            if (selectionArgs != null) {
+                for (String arg : selectionArgs) {
+                    args.add(arg);
+                }
+            }
+        }
+        if (radiusMeters >= 0) {
+            // a bare ? is text here, text compares greater than any number
+            sql.append(" AND ").append(OkProvider.COLUMN_DISTANCE_SQ).append("<=CAST(? AS REAL)");
+            args.add(Double.toString(radiusMeters * radiusMeters));
+        }
+        sql.append(" ORDER BY ").append(OkProvider.COLUMN_DISTANCE_SQ);
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+}
@@ -0,0 +1,40 @@
+package com.ithinkbest.taipeiok;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hit rate of the prepared statement cache of taipei.db, as seen from OkProvider.
+ * <p/>
+ * SQLiteDatabase keeps the last SIZE statements it compiled, by SQL text, and reuses
+ * them. This keeps an LRU of the same size over the SQL the provider runs, so a
+ * statement whose text changes with its values, a category or an _id spliced into
+ * the WHERE, shows up as misses.
+ */
+final class StatementCacheStats {
+
+    static final int SIZE = 25; // SQLiteDatabase's default, set explicitly in OkProvider.onCreate
+
+    private final LinkedHashMap<String, Boolean> recent = new LinkedHashMap<String, Boolean>(SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SIZE;
+        }
+    };
+    private long hits;
+    private long misses;
+
+    synchronized void record(String sql) {
+        if (recent.put(sql, Boolean.TRUE) != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    synchronized String report() {
+        long total = hits + misses;
+        return "statement cache hits=" + hits + " misses=" + misses
+                + " hitRate=" + (total == 0 ? 0 : hits * 100 / total) + "%";
+    }
+}
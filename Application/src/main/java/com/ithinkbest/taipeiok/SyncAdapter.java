@@ -0,0 +1,60 @@
+package com.ithinkbest.taipeiok;
+
+import android.accounts.Account;
+import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Periodic background refresh of OkProvider.
+ * <p/>
+ * Every stale category is fetched in the same sync, so one wakeup covers all of
+ * them. Failed categories back off in FreshnessStore; the failures are also
+ * reported in syncResult so the SyncManager backs off the whole sync.
+ */
+public class SyncAdapter extends AbstractThreadedSyncAdapter {
+
+    static String LOG_TAG = "MARK987";
+
+    public SyncAdapter(Context context, boolean autoInitialize) {
+        super(context, autoInitialize);
+    }
+
+    @Override
+    public void onPerformSync(Account account, Bundle extras, String authority,
+                              ContentProviderClient provider, SyncResult syncResult) {
+        long now = System.currentTimeMillis();
+        int[] cats;
+        if (extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false)) {
+            cats = new int[OkProvider.CATXX.length];
+            for (int i = 0; i < cats.length; i++) {
+                cats[i] = i;
+            }
+        } else {
+            cats = new FreshnessStore(getContext()).staleCategories(now);
+        }
+        Log.d(LOG_TAG, "onPerformSync, stale cats=" + cats.length);
+        if (cats.length == 0) {
+            return;
+        }
+
+        List<FetchEngine.Timing> timings =
+                new FetchEngine(getContext(), FetchEngine.DEFAULT_CONCURRENCY).refresh(cats);
+        for (FetchEngine.Timing timing : timings) {
+            if (timing.failed) {
+                syncResult.stats.numIoExceptions++;
+            } else if (timing.rejected) {
+                syncResult.stats.numSkippedEntries += timing.rows;
+            } else {
+                syncResult.stats.numEntries += timing.rows;
+                syncResult.stats.numUpdates += timing.changed;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.ithinkbest.taipeiok;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Creates the sync account and schedules the periodic refresh.
+ */
+public class SyncUtils {
+
+    static String LOG_TAG = "MARK987";
+    static final String ACCOUNT_TYPE = "com.ithinkbest.taipeiok.account";
+    static final String ACCOUNT_NAME = "TaipeiOK";
+    // the sync only downloads what FreshnessStore says is stale
+    static final long SYNC_FREQUENCY_SEC = 6L * 60 * 60;
+
+    public static Account getAccount() {
+        return new Account(ACCOUNT_NAME, ACCOUNT_TYPE);
+    }
+
+    /**
+     * Safe to call on every start, does nothing once the account exists.
+     */
+    public static void createSyncAccount(Context context) {
+        Account account = getAccount();
+        AccountManager accountManager = (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
+        if (accountManager.addAccountExplicitly(account, null, null)) {
+            Log.d(LOG_TAG, "sync account created");
+            ContentResolver.setIsSyncable(account, OkProvider.PROVIDER_NAME, 1);
+            ContentResolver.setSyncAutomatically(account, OkProvider.PROVIDER_NAME, true);
+            ContentResolver.addPeriodicSync(account, OkProvider.PROVIDER_NAME, new Bundle(), SYNC_FREQUENCY_SEC);
+        }
+    }
+
+    /**
+     * Asks for a sync of every category now, fresh or not.
+     */
+    public static void requestManualSync() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        ContentResolver.requestSync(getAccount(), OkProvider.PROVIDER_NAME, extras);
+    }
+}
@@ -0,0 +1,91 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * ETag / Last-Modified of the last successful download of each category,
+ * kept in the meta table of taipei.db so a refresh can be a conditional GET.
+ * A body OkProvider.publish rejected leaves them alone.
+ */
+public class ValidatorStore {
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private final ContentResolver resolver;
+
+    public ValidatorStore(Context context) {
+        resolver = context.getContentResolver();
+    }
+
+    /**
+     * Adds If-None-Match / If-Modified-Since for what we stored for cat, if anything.
+     */
+    public void addConditionalHeaders(int cat, HttpGet httpGet) {
+        Cursor cursor = resolver.query(OkProvider.CONTENT_URI_META,
+                new String[]{OkProvider.COLUMN_ETAG, OkProvider.COLUMN_LAST_MODIFIED},
+                OkProvider.SELECTION_META, new String[]{String.valueOf(cat)}, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            String etag = cursor.getString(0);
+            String lastModified = cursor.getString(1);
+            if (etag != null) {
+                httpGet.addHeader("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                httpGet.addHeader("If-Modified-Since", lastModified);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Remembers the validators of a response once its body is in the database.
+     */
+    public void save(int cat, HttpResponse response) {
+        String etag = headerValue(response, HEADER_ETAG);
+        String lastModified = headerValue(response, HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            clear(cat);
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(OkProvider.COLUMN_META_CATEGORY, cat);
+        values.put(OkProvider.COLUMN_ETAG, etag);
+        values.put(OkProvider.COLUMN_LAST_MODIFIED, lastModified);
+        resolver.insert(OkProvider.CONTENT_URI_META, values);
+    }
+
+    public void clear(int cat) {
+        ContentValues values = new ContentValues();
+        values.putNull(OkProvider.COLUMN_ETAG);
+        values.putNull(OkProvider.COLUMN_LAST_MODIFIED);
+        resolver.update(OkProvider.CONTENT_URI_META, values, OkProvider.SELECTION_META,
+                new String[]{String.valueOf(cat)});
+    }
+
+    /**
+     * Forgets validators and freshness of every category.
+     */
+    public void clearAll() {
+        resolver.delete(OkProvider.CONTENT_URI_META, null, null);
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+}
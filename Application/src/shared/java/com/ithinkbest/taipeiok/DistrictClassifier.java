@@ -0,0 +1,180 @@
+package com.ithinkbest.taipeiok;
+
+import java.util.Arrays;
+
+/**
+ * Finds the district of an address, built once from R.array.taipei_district
+ * ("100 中正區", ..., "XXX (地址無區)" last).
+ * <p/>
+ * The district names are compiled into one Aho-Corasick automaton, so an address
+ * is scanned once for all of them and nothing is allocated per address.
+ * When two names occur the one first in the array wins, like the old linear scan.
+ * An address without a name falls back to poi_addr, then to a leading postal code.
+ * Thread safe once built. Plain Java, the seed is classified with it as well.
+ */
+public final class DistrictClassifier {
+
+    private static final int NO_STATE = -1;
+
+    private final String[] districts;
+    private final int unknown;        // index of the "XXX" bucket, the last one
+    private final char[] alphabet;    // sorted chars of all names, class i + 1
+    private final int classes;
+    private final int[] next;         // state * classes + class -> state
+    private final int[] matches;      // state -> bit mask of districts ending there
+    private final int[] postalCodes;  // district -> 3 digit code, or -1
+
+    public DistrictClassifier(String[] taipeiDistrict) {
+        if (taipeiDistrict.length > 32) {
+            throw new IllegalArgumentException("at most 32 districts, got " + taipeiDistrict.length);
+        }
+        districts = taipeiDistrict;
+        unknown = districts.length - 1;
+
+        String[] names = new String[unknown];
+        postalCodes = new int[unknown];
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < unknown; i++) {
+            names[i] = districts[i].substring(4);
+            postalCodes[i] = parseCode(districts[i]);
+            chars.append(names[i]);
+        }
+        char[] sorted = chars.toString().toCharArray();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        alphabet = Arrays.copyOf(sorted, distinct);
+        classes = distinct + 1; // class 0 is every other char
+
+        // trie
+        int maxStates = 1;
+        for (String name : names) {
+            maxStates += name.length();
+        }
+        int[] trie = new int[maxStates * classes];
+        Arrays.fill(trie, NO_STATE);
+        int[] found = new int[maxStates];
+        int states = 1;
+        for (int d = 0; d < names.length; d++) {
+            int state = 0;
+            for (int i = 0; i < names[d].length(); i++) {
+                int slot = state * classes + classOf(names[d].charAt(i));
+                if (trie[slot] == NO_STATE) {
+                    trie[slot] = states++;
+                }
+                state = trie[slot];
+            }
+            found[state] |= 1 << d;
+        }
+
+        // failure links, breadth first, turning the trie into a full transition table
+        next = Arrays.copyOf(trie, states * classes);
+        matches = Arrays.copyOf(found, states);
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classes; c++) {
+            int child = next[c];
+            if (child == NO_STATE) {
+                next[c] = 0;
+            } else {
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            matches[state] |= matches[fail[state]];
+            for (int c = 0; c < classes; c++) {
+                int child = next[state * classes + c];
+                if (child == NO_STATE) {
+                    next[state * classes + c] = next[fail[state] * classes + c];
+                } else {
+                    fail[child] = next[fail[state] * classes + c];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Index into the district array; unknown() when nothing matched.
+     * poiAddr may be null.
+     */
+    public int classify(String displayAddr, String poiAddr) {
+        int district = firstName(displayAddr);
+        if (district == unknown && poiAddr != null) {
+            district = firstName(poiAddr);
+        }
+        if (district == unknown) {
+            district = byPostalCode(displayAddr);
+        }
+        return district;
+    }
+
+    public String label(int district) {
+        return districts[district];
+    }
+
+    public int unknown() {
+        return unknown;
+    }
+
+    // the name that comes first in the array, among all names in address
+    private int firstName(String address) {
+        int state = 0;
+        int found = 0;
+        for (int i = 0; i < address.length(); i++) {
+            state = next[state * classes + classOf(address.charAt(i))];
+            found |= matches[state];
+        }
+        return found == 0 ? unknown : Integer.numberOfTrailingZeros(found);
+    }
+
+    // "100臺北市..." or "10491 臺北市...", 3, 5 or 6 digits in front
+    private int byPostalCode(String address) {
+        int i = 0;
+        while (i < address.length() && address.charAt(i) == ' ') {
+            i++;
+        }
+        int start = i;
+        int code = 0;
+        while (i < address.length() && address.charAt(i) >= '0' && address.charAt(i) <= '9') {
+            if (i - start < 3) {
+                code = code * 10 + address.charAt(i) - '0';
+            }
+            i++;
+        }
+        int digits = i - start;
+        if (digits == 3 || digits == 5 || digits == 6) {
+            for (int d = 0; d < postalCodes.length; d++) {
+                if (postalCodes[d] == code) {
+                    return d;
+                }
+            }
+        }
+        return unknown;
+    }
+
+    private int classOf(char c) {
+        int i = Arrays.binarySearch(alphabet, c);
+        return i < 0 ? 0 : i + 1;
+    }
+
+    private static int parseCode(String district) {
+        int code = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = district.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            code = code * 10 + c - '0';
+        }
+        return code;
+    }
+}
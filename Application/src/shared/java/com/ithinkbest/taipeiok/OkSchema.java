@@ -0,0 +1,229 @@
+package com.ithinkbest.taipeiok;
+
+/**
+ * The tables of taipei.db: names, the CREATE statements and DATABASE_VERSION.
+ * OkProvider implements it and creates the database from CREATE_STATEMENTS,
+ * the buildSeedDatabase task writes the seed with the very same statements.
+ * <p/>
+ * Plain Java, see SearchTokens. Changing a statement means a new
+ * DATABASE_VERSION and a migrate() step in OkProvider.
+ */
+interface OkSchema {
+
+    // the certification categories the app knows, a category code is the index in CATXX
+    String CAT00 = "旅館業";
+    String CAT01 = "美容美髮業";
+    String CAT02 = "電影片映演業";
+    String CAT03 = "游泳業";
+    String CAT04 = "浴室業";
+    String CAT05 = "娛樂業";
+    String CAT06 = "製麵業及包子饅頭製作業";
+    String CAT07 = "食品販售業";
+    String CAT08 = "一般餐飲業";
+    String CAT09 = "飲冰品業";
+    String CAT10 = "烘焙業";
+    String CAT11 = "中央廚房";
+    String CAT12 = "休憩餐飲業";
+    String[] CATXX = {CAT00,CAT01,CAT02,CAT03,CAT04,CAT05,CAT06,CAT07,CAT08,CAT09,CAT10,CAT11,CAT12};
+
+    String COLUMN_ID = "_id"; // local ID
+    String COLUMN_NAME = "name";
+    // written and read as text, stored in ok as category_id; only VIEW_NAME has the text
+    String COLUMN_CERTIFICATION_CATEGORY = "certification_category";
+    String COLUMN_TEL = "tel";
+    String COLUMN_DISPLAY_ADDR = "display_addr";
+    String COLUMN_POI_ADDR = "poi_addr";
+
+    // same as certification_category, stored as district_id
+    String COLUMN_DISTRICT = "district";
+    // the codes to filter and group on: index in CATXX, index in R.array.taipei_district
+    String COLUMN_CATEGORY_ID = "category_id";
+    String COLUMN_DISTRICT_ID = "district_id";
+    // name|poi_addr, what a shop is matched on between two downloads
+    String COLUMN_ROW_KEY = "row_key";
+    String COLUMN_CONTENT_HASH = "content_hash";
+    // from Gazetteer, null when the address could not be placed
+    String COLUMN_LAT = "lat";
+    String COLUMN_LNG = "lng";
+    String COLUMN_GEOHASH = "geohash";
+
+    // one row per category: validators and freshness of the last download
+    String COLUMN_META_CATEGORY = "category";
+    String COLUMN_ETAG = "etag";
+    String COLUMN_LAST_MODIFIED = "last_modified";
+    String COLUMN_LAST_FETCHED = "last_fetched"; // ms, last 200 or 304
+    String COLUMN_FAILURES = "failures"; // failed attempts since then
+    String COLUMN_NEXT_ATTEMPT = "next_attempt"; // ms, backoff
+
+    String TABLE_NAME = "ok"; // YOUR DESIRED TABLE
+    String TABLE_META = "meta";
+    // code -> name of certification_category and district
+    String TABLE_CATEGORY = "category";
+    String TABLE_DISTRICT = "district";
+    String COLUMN_DICTIONARY_NAME = "name";
+    // rows per category and district, what the spinner shows
+    String TABLE_SUMMARY = "summary";
+    String COLUMN_COUNT = "cnt";
+    // the rows of a download while it arrives, see OkProvider.publish()
+    String TABLE_STAGE = "ok_stage";
+    String COLUMN_NAME_TOKENS = "name_tokens";
+    String COLUMN_ADDR_TOKENS = "addr_tokens";
+    String COLUMN_TARGET = "target"; // _id of the row of ok it replaces
+    // ok with the names of its codes, what CONTENT_URI reads
+    String VIEW_NAME = "ok_view";
+    int DATABASE_VERSION = 18; // ### need to increase when change, add a migrate() step
+
+    String COL0 = COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT";
+    String COL1 = COLUMN_NAME + " TEXT NOT NULL ";
+    String COL2 = COLUMN_CATEGORY_ID + " INTEGER NOT NULL ";
+    String COL3 = COLUMN_TEL + " TEXT NOT NULL ";
+    String COL4 = COLUMN_DISPLAY_ADDR + " TEXT NOT NULL ";
+    String COL5 = COLUMN_POI_ADDR + " TEXT NOT NULL ";
+
+    //
+    String COL6 = COLUMN_DISTRICT_ID + " INTEGER NOT NULL ";
+    String COL7 = COLUMN_ROW_KEY + " TEXT NOT NULL ";
+    String COL8 = COLUMN_CONTENT_HASH + " INTEGER NOT NULL ";
+    String COL9 = COLUMN_LAT + " REAL ";
+    String COL10 = COLUMN_LNG + " REAL ";
+    String COL11 = COLUMN_GEOHASH + " TEXT ";
+
+    // table structure
+    String CREATE_DB_TABLE = " CREATE TABLE " + TABLE_NAME + " ("
+            + COL0 + ","
+            + COL1 + ","
+            + COL2 + ","
+            + COL3 + ","
+            + COL4 + ","
+            + COL5 + ","
+            + COL6 + ","
+            + COL7 + ","
+            + COL8 + ","
+            + COL9 + ","
+            + COL10 + ","
+            + COL11 + " "
+            + ");";
+
+    // covering indexes, one per query shape, see QueryPlanTest.
+    // the rows OkProvider.publish() matches the stage against
+    String CREATE_ROW_KEY_INDEX = " CREATE INDEX " + TABLE_NAME + "_row_key ON "
+            + TABLE_NAME + " (" + COLUMN_CATEGORY_ID + "," + COLUMN_ROW_KEY + ","
+            + COLUMN_CONTENT_HASH + "," + COLUMN_GEOHASH + "," + COLUMN_DISTRICT_ID + ");";
+    // what the diff matches on, a second row with the same key fails the insert
+    String CREATE_ROW_KEY_UNIQUE = " CREATE UNIQUE INDEX " + TABLE_NAME + "_row_key_unique ON "
+            + TABLE_NAME + " (" + COLUMN_CATEGORY_ID + "," + COLUMN_ROW_KEY + ");";
+
+    // the list and the keyset pages of a category, by address then _id; district_id for the join of VIEW_NAME
+    String CREATE_CATEGORY_INDEX = " CREATE INDEX " + TABLE_NAME + "_category_addr ON "
+            + TABLE_NAME + " (" + COLUMN_CATEGORY_ID + "," + COLUMN_DISPLAY_ADDR + "," + COLUMN_ID + ","
+            + COLUMN_NAME + "," + COLUMN_LAT + "," + COLUMN_LNG + "," + COLUMN_DISTRICT_ID + ");";
+
+    // the list and the keyset pages of a district by address then _id, and the district counts of the spinner
+    String CREATE_DISTRICT_INDEX = " CREATE INDEX " + TABLE_NAME + "_district_addr ON "
+            + TABLE_NAME + " (" + COLUMN_CATEGORY_ID + "," + COLUMN_DISTRICT_ID + ","
+            + COLUMN_DISPLAY_ADDR + "," + COLUMN_ID + "," + COLUMN_NAME + "," + COLUMN_LAT + "," + COLUMN_LNG + ");";
+
+    String CREATE_GEOHASH_INDEX = " CREATE INDEX " + TABLE_NAME + "_geohash ON "
+            + TABLE_NAME + " (" + COLUMN_GEOHASH + ");";
+
+    // ok without _id, a row_key once per category: the first of two shops with the same key stays
+    String CREATE_STAGE_TABLE = " CREATE TABLE " + TABLE_STAGE + " ("
+            + COL1 + ","
+            + COL2 + ","
+            + COL3 + ","
+            + COL4 + ","
+            + COL5 + ","
+            + COL6 + ","
+            + COL7 + ","
+            + COL8 + ","
+            + COL9 + ","
+            + COL10 + ","
+            + COL11 + ","
+            + COLUMN_NAME_TOKENS + " TEXT NOT NULL,"
+            + COLUMN_ADDR_TOKENS + " TEXT NOT NULL,"
+            + COLUMN_TARGET + " INTEGER,"
+            + " UNIQUE (" + COLUMN_CATEGORY_ID + "," + COLUMN_ROW_KEY + "));";
+
+    String CREATE_CATEGORY_TABLE = " CREATE TABLE " + TABLE_CATEGORY + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY,"
+            + COLUMN_DICTIONARY_NAME + " TEXT NOT NULL UNIQUE);";
+
+    String CREATE_DISTRICT_TABLE = " CREATE TABLE " + TABLE_DISTRICT + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY,"
+            + COLUMN_DICTIONARY_NAME + " TEXT NOT NULL UNIQUE);";
+
+    String CREATE_SUMMARY_TABLE = " CREATE TABLE " + TABLE_SUMMARY + " ("
+            + COLUMN_CATEGORY_ID + " INTEGER NOT NULL,"
+            + COLUMN_DISTRICT_ID + " INTEGER NOT NULL,"
+            + COLUMN_COUNT + " INTEGER NOT NULL,"
+            + " PRIMARY KEY (" + COLUMN_CATEGORY_ID + "," + COLUMN_DISTRICT_ID + "));";
+
+    // summary follows every insert, delete and move of a row, in the transaction that made it
+    String[] CREATE_SUMMARY_TRIGGERS = {
+            " CREATE TRIGGER summary_insert AFTER INSERT ON ok BEGIN"
+                    + " INSERT OR IGNORE INTO summary VALUES (new.category_id, new.district_id, 0);"
+                    + " UPDATE summary SET cnt=cnt+1"
+                    + " WHERE category_id=new.category_id AND district_id=new.district_id; END",
+            " CREATE TRIGGER summary_delete AFTER DELETE ON ok BEGIN"
+                    + " UPDATE summary SET cnt=cnt-1"
+                    + " WHERE category_id=old.category_id AND district_id=old.district_id;"
+                    + " DELETE FROM summary"
+                    + " WHERE category_id=old.category_id AND district_id=old.district_id AND cnt<=0; END",
+            " CREATE TRIGGER summary_update AFTER UPDATE OF category_id, district_id ON ok"
+                    + " WHEN new.category_id<>old.category_id OR new.district_id<>old.district_id BEGIN"
+                    + " UPDATE summary SET cnt=cnt-1"
+                    + " WHERE category_id=old.category_id AND district_id=old.district_id;"
+                    + " DELETE FROM summary"
+                    + " WHERE category_id=old.category_id AND district_id=old.district_id AND cnt<=0;"
+                    + " INSERT OR IGNORE INTO summary VALUES (new.category_id, new.district_id, 0);"
+                    + " UPDATE summary SET cnt=cnt+1"
+                    + " WHERE category_id=new.category_id AND district_id=new.district_id; END",
+    };
+
+    // LEFT JOIN keeps ok the outer loop, so the ok indexes still decide the plan
+    String CREATE_VIEW = " CREATE VIEW " + VIEW_NAME + " AS SELECT " + TABLE_NAME + ".*,"
+            + TABLE_CATEGORY + "." + COLUMN_DICTIONARY_NAME + " AS " + COLUMN_CERTIFICATION_CATEGORY + ","
+            + TABLE_DISTRICT + "." + COLUMN_DICTIONARY_NAME + " AS " + COLUMN_DISTRICT
+            + " FROM " + TABLE_NAME
+            + " LEFT JOIN " + TABLE_CATEGORY + " ON " + TABLE_CATEGORY + "." + COLUMN_ID + "="
+            + TABLE_NAME + "." + COLUMN_CATEGORY_ID
+            + " LEFT JOIN " + TABLE_DISTRICT + " ON " + TABLE_DISTRICT + "." + COLUMN_ID + "="
+            + TABLE_NAME + "." + COLUMN_DISTRICT_ID + ";";
+
+    String CREATE_META_TABLE = " CREATE TABLE " + TABLE_META + " ("
+            + COLUMN_META_CATEGORY + " INTEGER PRIMARY KEY,"
+            + COLUMN_ETAG + " TEXT,"
+            + COLUMN_LAST_MODIFIED + " TEXT,"
+            + COLUMN_LAST_FETCHED + " INTEGER NOT NULL DEFAULT 0,"
+            + COLUMN_FAILURES + " INTEGER NOT NULL DEFAULT 0,"
+            + COLUMN_NEXT_ATTEMPT + " INTEGER NOT NULL DEFAULT 0 "
+            + ");";
+
+    // the bigrams of SearchTokens, docid = ok._id; see SearchIndex
+    String TABLE_FTS = "ok_fts";
+    String CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4("
+            + COLUMN_NAME + "," + COLUMN_DISPLAY_ADDR + ")";
+    String CREATE_FTS_DELETE_TRIGGER = "CREATE TRIGGER ok_fts_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN"
+            + " DELETE FROM " + TABLE_FTS + " WHERE docid=old." + COLUMN_ID + "; END";
+
+    // in the order OkProvider.DatabaseHelper.onCreate runs them; category and district are filled after
+    String[] CREATE_STATEMENTS = {
+            CREATE_CATEGORY_TABLE,
+            CREATE_DISTRICT_TABLE,
+            CREATE_DB_TABLE,
+            CREATE_ROW_KEY_INDEX,
+            CREATE_ROW_KEY_UNIQUE,
+            CREATE_CATEGORY_INDEX,
+            CREATE_DISTRICT_INDEX,
+            CREATE_GEOHASH_INDEX,
+            CREATE_FTS_TABLE,
+            CREATE_FTS_DELETE_TRIGGER,
+            CREATE_VIEW,
+            CREATE_SUMMARY_TABLE,
+            CREATE_SUMMARY_TRIGGERS[0],
+            CREATE_SUMMARY_TRIGGERS[1],
+            CREATE_SUMMARY_TRIGGERS[2],
+            CREATE_META_TABLE,
+            CREATE_STAGE_TABLE,
+    };
+}
@@ -0,0 +1,115 @@
+package com.ithinkbest.taipeiok;
+
+/**
+ * The CJK bigrams of SearchIndex: what goes into ok_fts for a text, and the MATCH
+ * expression for what was typed.
+ * <p/>
+ * Plain Java, so the buildSeedDatabase task runs this very code to fill the
+ * ok_fts of the seed.
+ */
+public final class SearchTokens {
+
+    private SearchTokens() {
+    }
+
+    public static String tokens(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(text.length() * 3);
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                int end = runEnd(text, i, true);
+                appendBigrams(out, text, i, end, true);
+                i = end;
+            } else if (isAsciiWord(c)) {
+                int end = runEnd(text, i, false);
+                separate(out).append(text, i, end);
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * The MATCH expression for what was typed, null when there is nothing to search.
+     * Words separated by spaces must all match, in any order.
+     */
+    public static String matchQuery(String typed) {
+        StringBuilder match = new StringBuilder();
+        String[] words = typed.trim().split("\\s+");
+        for (String word : words) {
+            StringBuilder phrase = new StringBuilder();
+            int i = 0;
+            while (i < word.length()) {
+                char c = word.charAt(i);
+                boolean cjk = isCjk(c);
+                if (!cjk && !isAsciiWord(c)) {
+                    i++;
+                    continue;
+                }
+                int end = runEnd(word, i, cjk);
+                boolean last = nextToken(word, end) == word.length();
+                if (cjk && end - i > 1) {
+                    // the trailing char only matters if something comes after it
+                    appendBigrams(phrase, word, i, end, !last);
+                } else {
+                    separate(phrase).append(word, i, end).append(last ? "*" : "");
+                }
+                i = end;
+            }
+            if (phrase.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append('"').append(phrase).append('"');
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    private static void appendBigrams(StringBuilder out, String text, int start, int end, boolean lastChar) {
+        for (int j = start; j + 1 < end; j++) {
+            separate(out).append(text, j, j + 2);
+        }
+        if (lastChar) {
+            separate(out).append(text.charAt(end - 1));
+        }
+    }
+
+    private static StringBuilder separate(StringBuilder out) {
+        if (out.length() > 0) {
+            out.append(' ');
+        }
+        return out;
+    }
+
+    private static int runEnd(String text, int start, boolean cjk) {
+        int end = start + 1;
+        while (end < text.length() && (cjk ? isCjk(text.charAt(end)) : isAsciiWord(text.charAt(end)))) {
+            end++;
+        }
+        return end;
+    }
+
+    // where the next token starts, text.length() if there is none
+    private static int nextToken(String text, int from) {
+        while (from < text.length() && !isCjk(text.charAt(from)) && !isAsciiWord(text.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isAsciiWord(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // anything outside ASCII that is a letter or a digit: ideographs, kana, full width forms
+    private static boolean isCjk(char c) {
+        return c >= 0x80 && Character.isLetterOrDigit(c);
+    }
+}
@@ -0,0 +1,60 @@
+package com.ithinkbest.taipeiok;
+
+/**
+ * The text columns of one shop as they are stored, from the fields of the JSON:
+ * trimmed, the tel shown after display_addr, the district, row_key and content_hash.
+ * <p/>
+ * JsonIngest.toValues() makes every row of the app from it and buildSeedDatabase
+ * every row of the seed, so a seeded shop has the content_hash its first download
+ * will have. Plain Java, see SearchTokens.
+ */
+public final class ShopRow {
+
+    public final String name;
+    public final String certificationCategory;
+    public final String tel;
+    public final String displayAddr;
+    public final String poiAddr;
+    // display_addr without the tel, what the district and the coordinates come from
+    public final String address;
+    public final int district; // index in R.array.taipei_district
+    public final String districtName;
+    public final String rowKey;
+    public final long contentHash;
+
+    public ShopRow(String name, String certificationCategory, String tel, String displayAddr,
+                   String poiAddr, DistrictClassifier districts) {
+        tel = tel.trim();
+        // not to show null
+        if (tel.equals("null")) {
+            tel = "";
+        }
+        this.name = name.trim();
+        this.certificationCategory = certificationCategory.trim();
+        this.tel = tel;
+        address = displayAddr.trim();
+        this.displayAddr = tel.equals("") ? address : address + "  tel: " + tel;
+        this.poiAddr = poiAddr.trim();
+        district = districts.classify(address, this.poiAddr);
+        districtName = districts.label(district);
+        rowKey = this.name + "|" + this.poiAddr;
+        contentHash = contentHash(this.name, this.certificationCategory, this.tel, this.displayAddr,
+                this.poiAddr, districtName);
+    }
+
+    /**
+     * 64 bit FNV-1a over the displayed columns.
+     */
+    static long contentHash(String... columns) {
+        long hash = 0xcbf29ce484222325L;
+        for (String value : columns) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= 0x1f; // column separator
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,115 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Inserts the same ROWS synthetic shops into category 0 twice, through
+ * ContentResolver.bulkInsert with one ContentValues per row and through a
+ * BulkLoader with its one Row, and logs rows/s and objects allocated per row
+ * on the writing thread, on the scratch database of ScratchProviderTestCase.
+ */
+public class BulkLoadBenchmarkTest extends ScratchProviderTestCase {
+
+    static final int ROWS = 20000;
+    static final int BATCH = JsonIngest.BATCH_SIZE;
+
+    private ContentResolver resolver;
+    private String[] taipeiDistrict;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        resolver = scratch.getContentResolver();
+        taipeiDistrict = scratch.getResources().getStringArray(R.array.taipei_district);
+        Debug.startAllocCounting();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Debug.stopAllocCounting();
+        super.tearDown();
+    }
+
+    public void testBulkInsert() {
+        clearCategory();
+        Random random = new Random(42);
+        Debug.resetThreadAllocCount();
+        long start = SystemClock.elapsedRealtime();
+        int rows = 0;
+        ContentValues[] batch = new ContentValues[BATCH];
+        int n = 0;
+        for (int i = 0; i < ROWS; i++) {
+            int district = random.nextInt(taipeiDistrict.length);
+            ContentValues values = new ContentValues();
+            values.put(OkProvider.COLUMN_NAME, "店" + i);
+            values.put(OkProvider.COLUMN_CERTIFICATION_CATEGORY, OkProvider.CAT00);
+            values.put(OkProvider.COLUMN_TEL, "");
+            values.put(OkProvider.COLUMN_DISPLAY_ADDR, address(district, i));
+            values.put(OkProvider.COLUMN_POI_ADDR, "");
+            values.put(OkProvider.COLUMN_DISTRICT, taipeiDistrict[district]);
+            values.put(OkProvider.COLUMN_ROW_KEY, "店" + i + "|");
+            values.put(OkProvider.COLUMN_CONTENT_HASH, (long) i);
+            values.putNull(OkProvider.COLUMN_LAT);
+            values.putNull(OkProvider.COLUMN_LNG);
+            values.putNull(OkProvider.COLUMN_GEOHASH);
+            batch[n++] = values;
+            if (n == BATCH) {
+                rows += resolver.bulkInsert(OkProvider.CONTENT_URI, batch);
+                batch = new ContentValues[BATCH];
+                n = 0;
+            }
+        }
+        if (n > 0) {
+            ContentValues[] rest = new ContentValues[n];
+            System.arraycopy(batch, 0, rest, 0, n);
+            rows += resolver.bulkInsert(OkProvider.CONTENT_URI, rest);
+        }
+        report("bulkInsert", rows, SystemClock.elapsedRealtime() - start, Debug.getThreadAllocCount());
+    }
+
+    public void testLoader() {
+        clearCategory();
+        Random random = new Random(42);
+        Debug.resetThreadAllocCount();
+        long start = SystemClock.elapsedRealtime();
+        BulkLoader loader = provider.newBulkLoader(BulkLoader.DEFAULT_CHUNK);
+        BulkLoader.Row row = loader.row();
+        for (int i = 0; i < ROWS; i++) {
+            int district = random.nextInt(taipeiDistrict.length);
+            row.name = "店" + i;
+            row.categoryId = 0;
+            row.tel = "";
+            row.displayAddr = address(district, i);
+            row.poiAddr = "";
+            row.districtId = district;
+            row.rowKey = row.name + "|";
+            row.contentHash = i;
+            row.located = false;
+            loader.add();
+        }
+        int rows = loader.finish();
+        report("loader", rows, SystemClock.elapsedRealtime() - start, Debug.getThreadAllocCount());
+    }
+
+    private String address(int district, int i) {
+        return "臺北市" + taipeiDistrict[district].substring(4) + "路" + (i % 500) + "號";
+    }
+
+    private void clearCategory() {
+        resolver.delete(OkProvider.CONTENT_URI, OkProvider.SELECTION_CATEGORY, new String[]{"0"});
+    }
+
+    // the strings of the shops themselves are counted in both runs
+    private void report(String name, int rows, long millis, int allocs) {
+        long rowsPerSec = millis > 0 ? rows * 1000L / millis : rows;
+        Log.d(LOG_TAG, "bench bulk " + name + ": rows=" + rows + " ms=" + millis + " rows/s=" + rowsPerSec
+                + " allocsPerRow=" + (rows > 0 ? allocs / (double) rows : 0));
+        assertEquals(name + " rows", ROWS, rows);
+    }
+}
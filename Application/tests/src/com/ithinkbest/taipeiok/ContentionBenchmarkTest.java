@@ -0,0 +1,140 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Ingests all 13 categories on a writer thread, each one assets/data00.json
+ * repeated REPEAT times under its own category, while this thread runs the
+ * spinner counts and the list of a random category as TaipeiFragment does.
+ * Logs the percentiles of those reads, once with the rollback journal of the
+ * durable profile and once with the profile from R.string.db_profile.
+ * Runs on the scratch database of ScratchProviderTestCase.
+ */
+public class ContentionBenchmarkTest extends ScratchProviderTestCase {
+
+    static final int REPEAT = 10;
+
+    private static final String[] LIST_PROJECTION = {OkProvider.COLUMN_ID,
+            OkProvider.COLUMN_NAME, OkProvider.COLUMN_DISPLAY_ADDR,
+            OkProvider.COLUMN_LAT, OkProvider.COLUMN_LNG};
+
+    private ContentResolver resolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        resolver = scratch.getContentResolver();
+    }
+
+    public void testRollbackJournal() throws IOException {
+        run(DatabaseProfile.forName(DatabaseProfile.DURABLE), readBody());
+    }
+
+    public void testConfiguredProfile() throws IOException {
+        DatabaseProfile configured = DatabaseProfile.load(scratch);
+        run(configured.wal ? configured : DatabaseProfile.forName(DatabaseProfile.BALANCED), readBody());
+    }
+
+    private void run(DatabaseProfile profile, final String body) {
+        resolver.delete(OkProvider.CONTENT_URI, null, null);
+        provider.applyProfile(profile);
+
+        final int[] written = new int[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                JsonIngest ingest = new JsonIngest(scratch);
+                for (int cat = 0; cat < OkProvider.CATXX.length; cat++) {
+                    try {
+                        written[0] += ingest.ingestStream(cat, new ByteArrayInputStream(payload(body, cat)));
+                    } catch (IOException e) {
+                        Log.d(LOG_TAG, "bench IOException " + e.toString());
+                    }
+                }
+            }
+        });
+
+        Random random = new Random(42);
+        long[] latencies = new long[1024];
+        int reads = 0;
+        long start = SystemClock.elapsedRealtime();
+        writer.start();
+        while (writer.isAlive()) {
+            int cat = random.nextInt(OkProvider.CATXX.length);
+            long t = System.nanoTime();
+            Cursor cursor = OkProvider.querySummary(resolver, cat);
+            cursor.getCount();
+            cursor.close();
+            cursor = OkProvider.queryCategory(resolver, cat, LIST_PROJECTION, OkProvider.COLUMN_DISPLAY_ADDR);
+            cursor.getCount();
+            cursor.close();
+            if (reads == latencies.length) {
+                latencies = Arrays.copyOf(latencies, reads * 2);
+            }
+            latencies[reads++] = (System.nanoTime() - t) / 1000;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long millis = SystemClock.elapsedRealtime() - start;
+
+        Arrays.sort(latencies, 0, reads);
+        Log.d(LOG_TAG, "bench contention " + profile.name + " wal=" + profile.wal + ": rows=" + written[0]
+                + " ingestMs=" + millis + " reads=" + reads
+                + " p50Us=" + percentile(latencies, reads, 50) + " p90Us=" + percentile(latencies, reads, 90)
+                + " p99Us=" + percentile(latencies, reads, 99) + " maxUs=" + percentile(latencies, reads, 100));
+        assertTrue("nothing ingested", written[0] > 0);
+    }
+
+    private static long percentile(long[] sorted, int n, int p) {
+        if (n == 0) {
+            return 0;
+        }
+        return sorted[Math.min(n - 1, n * p / 100)];
+    }
+
+    // the rows of data00.json without the enclosing [ ]
+    private String readBody() throws IOException {
+        InputStream in = scratch.getAssets().open("data00.json");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bos.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        String json = bos.toString("UTF-8").trim();
+        return json.substring(json.indexOf('[') + 1, json.lastIndexOf(']'));
+    }
+
+    // REPEAT copies with their own names, all of category cat
+    private static byte[] payload(String body, int cat) throws IOException {
+        String rows = body.replace("\"certification_category\":\"" + OkProvider.CAT00 + "\"",
+                "\"certification_category\":\"" + OkProvider.CATXX[cat] + "\"");
+        StringBuilder out = new StringBuilder(rows.length() * REPEAT + 2);
+        out.append('[');
+        for (int i = 0; i < REPEAT; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(rows.replace("\"name\":\"", "\"name\":\"" + i + " "));
+        }
+        out.append(']');
+        return out.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,129 @@
+package com.ithinkbest.taipeiok;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Classifies CORPUS_SIZE synthetic addresses with the old linear getDistrict scan
+ * and with DistrictClassifier, and logs the time and the unmatched rate
+ * (the XXX (地址無區) bucket) of both. Fails where the classifier disagrees
+ * with a district the old scan found.
+ */
+public class DistrictBenchmarkTest extends AndroidTestCase {
+
+    static String LOG_TAG = "MARK987";
+    static final int CORPUS_SIZE = 100000;
+    static final int ROUNDS = 3;
+
+    private static final String[] CITIES = {"臺北市", "台北市", ""};
+    private static final String[] ROADS = {"八德路2段", "寶慶路", "中華路1段", "忠孝東路4段", "南京東路3段",
+            "羅斯福路5段", "承德路7段", "內湖路1段", "文林路", "民生東路5段", "和平西路3段", "研究院路2段"};
+    private static final String[] LANDMARKS = {"（近捷運站）", "（百貨公司內）", "B1", "2F"};
+
+    private String[] taipeiDistrict;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        taipeiDistrict = getContext().getResources().getStringArray(R.array.taipei_district);
+    }
+
+    public void testClassifier() {
+        String[] display = new String[CORPUS_SIZE];
+        String[] poi = new String[CORPUS_SIZE];
+        buildCorpus(display, poi);
+
+        DistrictClassifier classifier = new DistrictClassifier(taipeiDistrict);
+        int unknown = classifier.unknown();
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = SystemClock.elapsedRealtime();
+            int legacyUnmatched = 0;
+            for (int i = 0; i < CORPUS_SIZE; i++) {
+                if (legacyDistrict(display[i]) == unknown) {
+                    legacyUnmatched++;
+                }
+            }
+            long legacyMs = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            int unmatched = 0;
+            for (int i = 0; i < CORPUS_SIZE; i++) {
+                if (classifier.classify(display[i], poi[i]) == unknown) {
+                    unmatched++;
+                }
+            }
+            long classifierMs = SystemClock.elapsedRealtime() - start;
+
+            Log.d(LOG_TAG, "bench district round=" + round + " addresses=" + CORPUS_SIZE
+                    + " linearMs=" + legacyMs + " linearUnmatched=" + percent(legacyUnmatched)
+                    + " classifierMs=" + classifierMs + " classifierUnmatched=" + percent(unmatched));
+        }
+
+        // where the old scan found a district the classifier must find the same one
+        int disagree = 0;
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            int legacy = legacyDistrict(display[i]);
+            if (legacy != unknown && legacy != classifier.classify(display[i], poi[i])) {
+                disagree++;
+            }
+        }
+        Log.d(LOG_TAG, "bench district disagreements=" + disagree);
+        assertEquals("disagreements with the linear scan", 0, disagree);
+    }
+
+    private static String percent(int count) {
+        return (count * 1000L / CORPUS_SIZE) / 10.0 + "%";
+    }
+
+    // JsonIngest.getDistrict() before DistrictClassifier
+    private int legacyDistrict(String address) {
+        String strDist = null;
+        int knownDist = taipeiDistrict.length - 1;
+        for (int i = 0; i < taipeiDistrict.length - 1; i++) {
+            strDist = taipeiDistrict[i].substring(4);
+            if (address.indexOf(strDist) >= 0) {
+                knownDist = i;
+                break;
+            }
+        }
+        return knownDist;
+    }
+
+    /**
+     * Mostly the shape of data.taipei.gov.tw addresses, with a share of the
+     * cases the linear scan misses: district only in poi_addr, postal code only,
+     * and no district at all.
+     */
+    private void buildCorpus(String[] display, String[] poi) {
+        Random random = new Random(42);
+        int known = taipeiDistrict.length - 1;
+        for (int i = 0; i < display.length; i++) {
+            String city = CITIES[random.nextInt(CITIES.length)];
+            String district = taipeiDistrict[random.nextInt(known)];
+            String street = ROADS[random.nextInt(ROADS.length)] + (1 + random.nextInt(400)) + "號";
+            int kind = random.nextInt(100);
+            if (kind < 80) {
+                display[i] = city + district.substring(4) + street;
+                poi[i] = "台北市" + street;
+            } else if (kind < 85) {
+                // a second district in the landmark text
+                display[i] = city + district.substring(4) + street + "（近"
+                        + taipeiDistrict[random.nextInt(known)].substring(4) + "界）";
+                poi[i] = "台北市" + street;
+            } else if (kind < 90) {
+                display[i] = city + street + LANDMARKS[random.nextInt(LANDMARKS.length)];
+                poi[i] = "台北市" + district.substring(4) + street;
+            } else if (kind < 95) {
+                display[i] = district.substring(0, 3) + (random.nextBoolean() ? "" : "" + random.nextInt(10) + random.nextInt(10))
+                        + city + street;
+                poi[i] = "台北市" + street;
+            } else {
+                display[i] = city + street;
+                poi[i] = "台北市" + street;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Writes the same ROWS random shops twice, into a database with certification_category
+ * and district as TEXT (schema 11) and into one with their codes (schema 12), each
+ * with its covering indexes. Logs the file size of both, and the time of the spinner
+ * counts and of a district list, QUERIES times each. The codes must make the
+ * smaller file.
+ */
+public class EncodingBenchmarkTest extends AndroidTestCase {
+
+    static String LOG_TAG = "MARK987";
+    static final int ROWS = 50000;
+    static final int QUERIES = 200;
+
+    private String[] taipeiDistrict;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        taipeiDistrict = getContext().getResources().getStringArray(R.array.taipei_district);
+    }
+
+    public void testCodes() {
+        long text = run(false);
+        long coded = run(true);
+        assertTrue("coded bytes=" + coded + " text bytes=" + text, coded < text);
+    }
+
+    // returns the size of the file after VACUUM
+    private long run(boolean coded) {
+        String name = coded ? "coded" : "text";
+        File file = getContext().getDatabasePath("bench_" + name + ".db");
+        file.getParentFile().mkdirs();
+        getContext().deleteDatabase(file.getName());
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            long start = SystemClock.elapsedRealtime();
+            fill(db, coded, new Random(42));
+            long fillMs = SystemClock.elapsedRealtime() - start;
+            db.execSQL("VACUUM");
+            long bytes = file.length();
+            Log.d(LOG_TAG, "bench encoding " + name + " rows=" + ROWS + " fillMs=" + fillMs
+                    + " bytes=" + bytes);
+
+            String category = coded ? "category_id" : "certification_category";
+            String district = coded ? "district_id" : "district";
+            String counts = "SELECT " + district + ", COUNT(*) FROM ok WHERE " + category + "=? GROUP BY " + district;
+            String list = "SELECT _id, name, display_addr FROM ok WHERE " + category + "=? AND " + district
+                    + "=? ORDER BY display_addr";
+            Random random = new Random(7);
+            long countsMs = 0, listMs = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                int cat = random.nextInt(OkProvider.CATXX.length);
+                int dist = random.nextInt(taipeiDistrict.length);
+                String catArg = coded ? String.valueOf(cat) : OkProvider.CATXX[cat];
+                String distArg = coded ? String.valueOf(dist) : taipeiDistrict[dist];
+
+                long t = SystemClock.elapsedRealtime();
+                Cursor cursor = db.rawQuery(counts, new String[]{catArg});
+                cursor.getCount();
+                cursor.close();
+                countsMs += SystemClock.elapsedRealtime() - t;
+
+                t = SystemClock.elapsedRealtime();
+                cursor = db.rawQuery(list, new String[]{catArg, distArg});
+                cursor.getCount();
+                cursor.close();
+                listMs += SystemClock.elapsedRealtime() - t;
+            }
+            Log.d(LOG_TAG, "bench encoding " + name + " countsAvgMs=" + (countsMs / (double) QUERIES)
+                    + " listAvgMs=" + (listMs / (double) QUERIES));
+            return bytes;
+        } finally {
+            db.close();
+            getContext().deleteDatabase(file.getName());
+        }
+    }
+
+    private void fill(SQLiteDatabase db, boolean coded, Random random) {
+        String category = coded ? "category_id INTEGER" : "certification_category TEXT";
+        String district = coded ? "district_id INTEGER" : "district TEXT";
+        String categoryColumn = coded ? "category_id" : "certification_category";
+        String districtColumn = coded ? "district_id" : "district";
+        db.execSQL("CREATE TABLE ok (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                + category + " NOT NULL, display_addr TEXT NOT NULL, " + district + " NOT NULL)");
+        db.execSQL("CREATE INDEX ok_category_addr ON ok (" + categoryColumn + ",display_addr,name)");
+        db.execSQL("CREATE INDEX ok_district_addr ON ok (" + categoryColumn + "," + districtColumn
+                + ",display_addr,name)");
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                int cat = random.nextInt(OkProvider.CATXX.length);
+                int dist = random.nextInt(taipeiDistrict.length);
+                values.put("name", "店" + i);
+                values.put("display_addr", "臺北市" + taipeiDistrict[dist].substring(4) + "路" + random.nextInt(500) + "號");
+                if (coded) {
+                    values.put(categoryColumn, cat);
+                    values.put(districtColumn, dist);
+                } else {
+                    values.put(categoryColumn, OkProvider.CATXX[cat]);
+                    values.put(districtColumn, taipeiDistrict[dist]);
+                }
+                db.insert("ok", null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
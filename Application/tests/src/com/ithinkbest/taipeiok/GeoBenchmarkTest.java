@@ -0,0 +1,130 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fills an in-memory database with ROWS random shops over Taipei, indexed the way
+ * the ok table is, and times QUERIES kNN and radius queries of SpatialQuery.
+ * The first few kNN answers must match a full scan. Results go to logcat;
+ * the target is under 10 ms per query.
+ */
+public class GeoBenchmarkTest extends AndroidTestCase {
+
+    static String LOG_TAG = "MARK987";
+    static final int ROWS = 100000;
+    static final int QUERIES = 200;
+    static final int K = 10;
+    static final double RADIUS_METERS = 500;
+    static final int CHECKED = 20;
+    private static final String TABLE = "ok";
+
+    // around Taipei
+    private static final double MIN_LAT = 24.96, MAX_LAT = 25.21;
+    private static final double MIN_LNG = 121.45, MAX_LNG = 121.67;
+
+    public void testNearestAndWithin() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            Random random = new Random(42);
+            long start = SystemClock.elapsedRealtime();
+            fill(db, random);
+            Log.d(LOG_TAG, "bench geo rows=" + ROWS + " fillMs=" + (SystemClock.elapsedRealtime() - start));
+
+            long knnMax = 0, knnTotal = 0, rangeMax = 0, rangeTotal = 0, rangeRows = 0;
+            int wrong = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                double lat = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+                double lng = MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG);
+
+                long t = SystemClock.elapsedRealtime();
+                Cursor knn = SpatialQuery.nearest(db, TABLE, new String[]{OkProvider.COLUMN_ID},
+                        null, null, lat, lng, K);
+                knn.getCount(); // fills the window, the query really runs here
+                long ms = SystemClock.elapsedRealtime() - t;
+                knnTotal += ms;
+                knnMax = Math.max(knnMax, ms);
+                if (i < CHECKED && !sameAsFullScan(db, knn, lat, lng)) {
+                    wrong++;
+                }
+                knn.close();
+
+                t = SystemClock.elapsedRealtime();
+                Cursor range = SpatialQuery.within(db, TABLE, new String[]{OkProvider.COLUMN_ID},
+                        null, null, lat, lng, RADIUS_METERS);
+                rangeRows += range.getCount();
+                ms = SystemClock.elapsedRealtime() - t;
+                rangeTotal += ms;
+                rangeMax = Math.max(rangeMax, ms);
+                range.close();
+            }
+            Log.d(LOG_TAG, "bench geo knn k=" + K + " avgMs=" + (knnTotal / (double) QUERIES) + " maxMs=" + knnMax
+                    + " wrong=" + wrong + "/" + CHECKED);
+            Log.d(LOG_TAG, "bench geo radius=" + RADIUS_METERS + "m avgMs=" + (rangeTotal / (double) QUERIES)
+                    + " maxMs=" + rangeMax + " avgRows=" + (rangeRows / QUERIES));
+            assertEquals("kNN answers unlike a full scan", 0, wrong);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void fill(SQLiteDatabase db, Random random) {
+        db.execSQL("CREATE TABLE " + TABLE + " (" + OkProvider.COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + OkProvider.COLUMN_LAT + " REAL," + OkProvider.COLUMN_LNG + " REAL,"
+                + OkProvider.COLUMN_GEOHASH + " TEXT)");
+        db.execSQL("CREATE INDEX " + TABLE + "_geohash ON " + TABLE + " (" + OkProvider.COLUMN_GEOHASH + ")");
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                double lat = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+                double lng = MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG);
+                values.put(OkProvider.COLUMN_LAT, lat);
+                values.put(OkProvider.COLUMN_LNG, lng);
+                values.put(OkProvider.COLUMN_GEOHASH, GeoHash.encode(lat, lng, GeoHash.PRECISION));
+                db.insert(TABLE, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // the k-th distance of a full scan must be the k-th distance of the indexed answer
+    private boolean sameAsFullScan(SQLiteDatabase db, Cursor knn, double lat, double lng) {
+        double metersPerLng = GeoHash.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        Cursor all = db.query(TABLE, new String[]{OkProvider.COLUMN_LAT, OkProvider.COLUMN_LNG},
+                null, null, null, null, null);
+        double[] nearest = new double[K];
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        try {
+            while (all.moveToNext()) {
+                double dy = (all.getDouble(0) - lat) * GeoHash.METERS_PER_DEGREE;
+                double dx = (all.getDouble(1) - lng) * metersPerLng;
+                double d = dy * dy + dx * dx;
+                if (d < nearest[K - 1]) {
+                    int j = K - 1;
+                    while (j > 0 && nearest[j - 1] > d) {
+                        nearest[j] = nearest[j - 1];
+                        j--;
+                    }
+                    nearest[j] = d;
+                }
+            }
+        } finally {
+            all.close();
+        }
+        if (!knn.moveToLast()) {
+            return false;
+        }
+        double kth = knn.getDouble(knn.getColumnIndexOrThrow(OkProvider.COLUMN_DISTANCE_SQ));
+        return Math.abs(kth - nearest[K - 1]) < 1e-3;
+    }
+}
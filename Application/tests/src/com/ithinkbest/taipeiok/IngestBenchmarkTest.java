@@ -0,0 +1,183 @@
+package com.ithinkbest.taipeiok;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Builds a synthetic payload by repeating assets/data00.json REPEAT times, so it
+ * is about the size of 一般餐飲業, and ingests it as category 0 with the in-memory
+ * path and with the streaming path, on the scratch database of
+ * ScratchProviderTestCase. Results go to logcat.
+ */
+public class IngestBenchmarkTest extends ScratchProviderTestCase {
+
+    static final int REPEAT = 40;
+    private static final String PAYLOAD_FILE = "bench_payload.json";
+
+    private File payload;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        payload = buildPayload();
+        Log.d(LOG_TAG, "bench payload bytes=" + payload.length());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        payload.delete();
+        super.tearDown();
+    }
+
+    public void testString() throws IOException {
+        report("string", runString(payload));
+    }
+
+    public void testStream() throws IOException {
+        report("stream", runStream(payload));
+    }
+
+    private Result runString(File payload) throws IOException {
+        clearCategory();
+        HeapSampler sampler = HeapSampler.begin();
+        long start = SystemClock.elapsedRealtime();
+        String strJson;
+        InputStream in = new FileInputStream(payload);
+        try {
+            strJson = JsonIngest.readString(in);
+        } finally {
+            in.close();
+        }
+        int rows = new JsonIngest(scratch).ingestString(0, strJson);
+        return new Result(rows, SystemClock.elapsedRealtime() - start, sampler.finish());
+    }
+
+    private Result runStream(File payload) throws IOException {
+        clearCategory();
+        HeapSampler sampler = HeapSampler.begin();
+        long start = SystemClock.elapsedRealtime();
+        InputStream in = new FileInputStream(payload);
+        int rows;
+        try {
+            rows = new JsonIngest(scratch).ingestStream(0, in);
+        } finally {
+            in.close();
+        }
+        return new Result(rows, SystemClock.elapsedRealtime() - start, sampler.finish());
+    }
+
+    // both runs start from an empty category, so every row is an insert
+    private void clearCategory() {
+        scratch.getContentResolver().delete(OkProvider.CONTENT_URI,
+                OkProvider.SELECTION_CATEGORY, new String[]{"0"});
+    }
+
+    private void report(String name, Result r) {
+        long rowsPerSec = r.millis > 0 ? r.rows * 1000L / r.millis : r.rows;
+        Log.d(LOG_TAG, "bench " + name + ": rows=" + r.rows + " ms=" + r.millis
+                + " rows/s=" + rowsPerSec + " peakHeapKB=" + r.peakHeap / 1024);
+        assertTrue("nothing ingested", r.rows > 0);
+    }
+
+    private File buildPayload() throws IOException {
+        InputStream in = scratch.getAssets().open("data00.json");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bos.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        String json = bos.toString("UTF-8").trim();
+        // the rows without the enclosing [ ]
+        String body = json.substring(json.indexOf('[') + 1, json.lastIndexOf(']'));
+
+        File file = new File(scratch.getCacheDir(), PAYLOAD_FILE);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write('[');
+            for (int i = 0; i < REPEAT; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                // every copy gets its own names, otherwise they are all the same shops
+                out.write(body.replace("\"name\":\"", "\"name\":\"" + i + " ").getBytes("UTF-8"));
+            }
+            out.write(']');
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static class Result {
+        final int rows;
+        final long millis;
+        final long peakHeap;
+
+        Result(int rows, long millis, long peakHeap) {
+            this.rows = rows;
+            this.millis = millis;
+            this.peakHeap = peakHeap;
+        }
+    }
+
+    /**
+     * Polls the used Java heap every millisecond and keeps the highest value
+     * above the level seen at start.
+     */
+    static class HeapSampler extends Thread {
+        private final Runtime runtime = Runtime.getRuntime();
+        private final long base;
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        private HeapSampler() {
+            System.gc();
+            base = used();
+        }
+
+        static HeapSampler begin() {
+            HeapSampler sampler = new HeapSampler();
+            sampler.setDaemon(true);
+            sampler.start();
+            return sampler;
+        }
+
+        private long used() {
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long now = used() - base;
+                if (now > peak) {
+                    peak = now;
+                }
+                SystemClock.sleep(1);
+            }
+        }
+
+        long finish() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return peak;
+        }
+    }
+}
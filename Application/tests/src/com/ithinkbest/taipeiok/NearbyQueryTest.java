@@ -0,0 +1,54 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * A bad nearby uri is an IllegalArgumentException, which the caller of a
+ * ContentResolver sees, never a NumberFormatException or a broken cursor.
+ */
+public class NearbyQueryTest extends ScratchProviderTestCase {
+
+    public void testNearest() {
+        Cursor cursor = provider.query(nearby("25.04", "121.53", OkProvider.PARAM_K, "3"), null, null, null, null);
+        try {
+            assertTrue(cursor.getCount() <= 3);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBadK() {
+        assertRejected(nearby("25.04", "121.53", OkProvider.PARAM_K, "0"));
+        assertRejected(nearby("25.04", "121.53", OkProvider.PARAM_K, "-1"));
+        assertRejected(nearby("25.04", "121.53", OkProvider.PARAM_K, "ten"));
+    }
+
+    public void testBadPoint() {
+        assertRejected(nearby("abc", "121.53", OkProvider.PARAM_K, "3"));
+        assertRejected(nearby("25.04", "", OkProvider.PARAM_K, "3"));
+        assertRejected(nearby("NaN", "121.53", OkProvider.PARAM_K, "3"));
+        assertRejected(nearby("95", "121.53", OkProvider.PARAM_K, "3"));
+    }
+
+    public void testBadRadius() {
+        assertRejected(nearby("25.04", "121.53", OkProvider.PARAM_RADIUS, "-5"));
+        assertRejected(nearby("25.04", "121.53", OkProvider.PARAM_RADIUS, "far"));
+    }
+
+    private static Uri nearby(String lat, String lng, String name, String value) {
+        return OkProvider.CONTENT_URI_NEARBY.buildUpon()
+                .appendQueryParameter(OkProvider.PARAM_LAT, lat)
+                .appendQueryParameter(OkProvider.PARAM_LNG, lng)
+                .appendQueryParameter(name, value)
+                .build();
+    }
+
+    private void assertRejected(Uri uri) {
+        try {
+            provider.query(uri, null, null, null, null).close();
+            fail("accepted " + uri);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
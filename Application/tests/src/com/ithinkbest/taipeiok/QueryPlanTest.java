@@ -0,0 +1,102 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * EXPLAIN QUERY PLAN for the queries the app really makes. Every one of them
+ * filters on category_id, so each table is expected to be searched by an index:
+ * a test fails on a SCAN, on a read of ok that is not through a covering
+ * index, or on a sort in a temp b-tree. A new query shape, or a column added to a projection, needs its
+ * index updated in OkProvider.
+ */
+public class QueryPlanTest extends ScratchProviderTestCase {
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        db = SQLiteDatabase.openDatabase(databasePath(), null, SQLiteDatabase.OPEN_READONLY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    // the SQL OkProvider makes for them, ? bound to a category or district code
+
+    public void testListOfCategory() {
+        assertCovered("SELECT _id, name, display_addr, lat, lng FROM ok_view"
+                + " WHERE (category_id=?) ORDER BY display_addr");
+    }
+
+    public void testListOfDistrict() {
+        assertCovered("SELECT _id, name, display_addr, lat, lng FROM ok_view"
+                + " WHERE (category_id=? AND district_id=?) ORDER BY display_addr");
+    }
+
+    public void testSpinnerCounts() {
+        assertCovered("SELECT district_id AS _id,district.name AS district, cnt AS CNT FROM summary"
+                + " LEFT JOIN district ON district._id=district_id WHERE  category_id=? ORDER BY district_id");
+    }
+
+    public void testPageOfCategory() {
+        assertCovered("SELECT _id, name, display_addr, lat, lng FROM ok_view"
+                + " WHERE (category_id=? AND (display_addr>=? AND (display_addr>? OR _id>?)))"
+                + " ORDER BY display_addr,_id LIMIT 50");
+    }
+
+    public void testPageOfDistrict() {
+        assertCovered("SELECT _id, name, display_addr, lat, lng FROM ok_view"
+                + " WHERE (category_id=? AND district_id=? AND (display_addr>=? AND (display_addr>? OR _id>?)))"
+                + " ORDER BY display_addr,_id LIMIT 50");
+    }
+
+    // OkProvider.publish matching the stage against ok, and indexing what it inserted
+    public void testPublishTargets() {
+        assertCovered("UPDATE ok_stage SET target=(SELECT _id FROM ok WHERE ok.category_id=ok_stage.category_id"
+                + " AND ok.row_key=ok_stage.row_key) WHERE category_id=?");
+    }
+
+    public void testPublishIndex() {
+        assertCovered("INSERT INTO ok_fts (docid,name,display_addr) SELECT ok._id,name_tokens,addr_tokens"
+                + " FROM ok_stage JOIN ok ON ok.category_id=ok_stage.category_id AND ok.row_key=ok_stage.row_key"
+                + " WHERE ok_stage.category_id=?");
+    }
+
+    private void assertCovered(String sql) {
+        int params = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                params++;
+            }
+        }
+        String[] args = new String[params];
+        for (int i = 0; i < params; i++) {
+            args[i] = "0";
+        }
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String step = cursor.getString(detail);
+                plan.append(plan.length() == 0 ? "" : " | ").append(step);
+                // "SCAN TABLE ok" on old SQLite, "SCAN ok" on new
+                boolean readsOk = step.contains(" ok ") || step.endsWith(" ok");
+                assertFalse(getName() + " scans: " + step, step.startsWith("SCAN"));
+                assertFalse(getName() + " sorts in a temp b-tree: " + step, step.contains("TEMP B-TREE"));
+                assertFalse(getName() + " reads ok without a covering index: " + step,
+                        readsOk && !step.contains("COVERING INDEX"));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, "plan " + getName() + ": " + plan);
+        assertTrue(getName() + " has no plan", plan.length() > 0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Gives each test an OkProvider of its own on a scratch copy of taipei.db
+ * ("scratch.taipei.db", seeded like the real one), reached through a
+ * MockContentResolver. The database of the app is never opened, and the
+ * scratch files are deleted after every test.
+ */
+public abstract class ScratchProviderTestCase extends AndroidTestCase {
+
+    static String LOG_TAG = "MARK987";
+
+    static final String PREFIX = "scratch.";
+
+    protected OkProvider provider;
+    // getContentResolver() of it only reaches provider
+    protected Context scratch;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MockContentResolver resolver = new MockContentResolver();
+        scratch = new IsolatedContext(resolver, new RenamingDelegatingContext(getContext(), PREFIX));
+        scratch.deleteDatabase(OkProvider.DATABASE_NAME);
+        provider = new OkProvider();
+        provider.attachInfo(scratch, null);
+        resolver.addProvider(OkProvider.PROVIDER_NAME, provider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        provider.shutdown();
+        scratch.deleteDatabase(OkProvider.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    protected String databasePath() {
+        return scratch.getDatabasePath(OkProvider.DATABASE_NAME).getPath();
+    }
+}
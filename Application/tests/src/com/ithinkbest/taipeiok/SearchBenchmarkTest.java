@@ -0,0 +1,101 @@
+package com.ithinkbest.taipeiok;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Fills an in-memory database with ROWS random shops and their ok_fts tokens,
+ * then types the name of a random shop one char at a time, the way the SearchView
+ * does, and times the first page of every keystroke. Results go to logcat; the
+ * target is well under a frame, 16 ms. The whole name must find something.
+ */
+public class SearchBenchmarkTest extends AndroidTestCase {
+
+    static String LOG_TAG = "MARK987";
+    static final int ROWS = 50000;
+    static final int TYPED = 100;
+    static final int PAGE = OkProvider.DEFAULT_SEARCH_LIMIT;
+    private static final String TABLE = "ok";
+
+    private static final String NAME_CHARS = "碧瑤飯店大安商行小吃麵館茶坊咖啡永和豆漿美而美早餐鮮果汁牛肉麵鍋貼水餃便當";
+    private static final String[] NAME_SUFFIXES = {"", "店", "館", " Cafe", " Hotel", "本舖"};
+    private static final String[] ROADS = {"八德路2段", "寶慶路", "中華路1段", "忠孝東路4段", "南京東路3段",
+            "羅斯福路5段", "承德路7段", "內湖路1段", "文林路", "民生東路5段", "和平西路3段", "研究院路2段"};
+
+    public void testTyping() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            Random random = new Random(42);
+            String[] names = new String[ROWS];
+            long start = SystemClock.elapsedRealtime();
+            fill(db, random, names);
+            Log.d(LOG_TAG, "bench search rows=" + ROWS + " fillMs=" + (SystemClock.elapsedRealtime() - start));
+
+            long total = 0, max = 0, rows = 0;
+            int keystrokes = 0, missed = 0;
+            for (int i = 0; i < TYPED; i++) {
+                String name = names[random.nextInt(ROWS)];
+                for (int end = 1; end <= name.length(); end++) {
+                    String match = SearchTokens.matchQuery(name.substring(0, end));
+                    if (match == null) {
+                        continue;
+                    }
+                    long t = SystemClock.elapsedRealtime();
+                    Cursor cursor = db.query(TABLE, new String[]{OkProvider.COLUMN_ID, OkProvider.COLUMN_NAME,
+                                    OkProvider.COLUMN_DISPLAY_ADDR},
+                            OkProvider.COLUMN_ID + " IN (SELECT docid FROM " + SearchIndex.TABLE + " WHERE "
+                                    + SearchIndex.TABLE + " MATCH ?)", new String[]{match},
+                            null, null, null, String.valueOf(PAGE));
+                    int count = cursor.getCount(); // fills the window, the query really runs here
+                    long ms = SystemClock.elapsedRealtime() - t;
+                    rows += count;
+                    if (end == name.length() && count == 0) {
+                        missed++;
+                    }
+                    cursor.close();
+                    total += ms;
+                    max = Math.max(max, ms);
+                    keystrokes++;
+                }
+            }
+            Log.d(LOG_TAG, "bench search keystrokes=" + keystrokes + " avgMs=" + (total / (double) keystrokes)
+                    + " maxMs=" + max + " avgRows=" + (rows / keystrokes));
+            assertEquals("typed names not found", 0, missed);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void fill(SQLiteDatabase db, Random random, String[] names) {
+        db.execSQL("CREATE TABLE " + TABLE + " (" + OkProvider.COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + OkProvider.COLUMN_NAME + " TEXT," + OkProvider.COLUMN_DISPLAY_ADDR + " TEXT)");
+        db.execSQL(OkSchema.CREATE_FTS_TABLE);
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                StringBuilder name = new StringBuilder();
+                int length = 2 + random.nextInt(4);
+                for (int j = 0; j < length; j++) {
+                    name.append(NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length())));
+                }
+                name.append(NAME_SUFFIXES[random.nextInt(NAME_SUFFIXES.length)]);
+                names[i] = name.toString();
+                String addr = "臺北市" + ROADS[random.nextInt(ROADS.length)] + (1 + random.nextInt(300)) + "號";
+                values.put(OkProvider.COLUMN_NAME, names[i]);
+                values.put(OkProvider.COLUMN_DISPLAY_ADDR, addr);
+                long id = db.insert(TABLE, null, values);
+                SearchIndex.index(db, id, names[i], addr);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.ithinkbest.taipeiok;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The seed comes with ok_fts filled in by SeedBuilder. Its tokens must be the
+ * ones SearchTokens.tokens() makes on the phone, or a seeded shop is not found
+ * until its category is refreshed.
+ */
+public class SeedSearchTest extends ScratchProviderTestCase {
+
+    public void testSeedTokens() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databasePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("SELECT ok._id, ok.name, ok.display_addr, ok_fts.name, ok_fts.display_addr"
+                    + " FROM ok LEFT JOIN ok_fts ON ok_fts.docid=ok._id", null);
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    assertEquals("name of " + id, SearchTokens.tokens(cursor.getString(1)), cursor.getString(3));
+                    assertEquals("display_addr of " + id, SearchTokens.tokens(cursor.getString(2)), cursor.getString(4));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+}